@@ -1,6 +1,8 @@
 
 package arser;
 
+import java.util.Locale;
+
 /**
 	Represents a single attribute of an element.<p>
 	The parser may generate an Attribute with an empty
@@ -17,7 +19,7 @@ public class Attribute {
 	
 	/** Constructor for an untyped attribute. */
 	public Attribute( String attributeName, String attributeValue ) {
-		name = attributeName.toLowerCase();
+		name = attributeName.toLowerCase( Locale.ROOT );
 		value = attributeValue.toString();
 	}
 	
@@ -28,6 +30,13 @@ public class Attribute {
 		value = attributeValue.toString();
 	}
 
+	/* Reinitialize this Attribute for reuse with the specified declaration, lower-case name and value. */
+	void reset( AttributeDecl attributeDecl, String attributeName, String attributeValue ) {
+		decl = attributeDecl;
+		name = attributeName;
+		value = attributeValue;
+	}
+
 	/** @return the name of the attribute. */
 	public String getName() {
 		return name;
@@ -73,7 +82,7 @@ public class Attribute {
 	
 	/** @return the value of the Attribute with the specified name within the specified Collection. */
 	public static String getValue( java.util.Collection<Attribute> attributes, String name ) {
-		name = name.toLowerCase();
+		name = name.toLowerCase( Locale.ROOT );
 		for( Attribute attribute : attributes ) {
 			if( name.equals( attribute.name ) ) {
 				return attribute.value;
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 
 /**
 	An Attribute declaration for the validation engine.
@@ -24,12 +25,12 @@ public class AttributeDecl {
 		@param isRequired True if the attribute may not be implied.
 	*/
 	public AttributeDecl( String attName, List<String> attValues, String attDefault, boolean isRequired ) {
-		name = attName.toLowerCase();
+		name = attName.toLowerCase( Locale.ROOT );
 		values = NO_VALUES;
 		if( attValues != null && attValues.size() > 0 ) {
 			values = new ArrayList<String>( attValues.size() );
 			for( String attValue : attValues ) {
-				values.add( attValue.toLowerCase() );
+				values.add( attValue.toLowerCase( Locale.ROOT ) );
 			}
 		}
 		defaultValue = ( attDefault == null ) ? "" : attDefault;
@@ -54,11 +55,45 @@ public class AttributeDecl {
 		@return Whether specified value is in the list of permitted values.
 	*/
 	public boolean hasValue( String value ) {
+		return hasValue( ( CharSequence ) value );
+	}
+
+	/**
+		@return Whether specified value is in the list of permitted values.
+	*/
+	public boolean hasValue( CharSequence value ) {
 		if( !required && value.length() <= 0 ) {
 			// Not required to specify a value.
 			return true;
 		}
-		return values.contains( value.toLowerCase() );
+		for( int idx = 0, size = values.size(); idx < size; idx++ ) {
+			if( equalsIgnoreCase( values.get( idx ), value ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* As String.equalsIgnoreCase(), without requiring a String. */
+	private static boolean equalsIgnoreCase( String string, CharSequence chars ) {
+		if( string == chars ) {
+			return true;
+		}
+		int length = string.length();
+		if( chars.length() != length ) {
+			return false;
+		}
+		for( int idx = 0; idx < length; idx++ ) {
+			char chr1 = string.charAt( idx ), chr2 = chars.charAt( idx );
+			if( chr1 != chr2 ) {
+				chr1 = Character.toUpperCase( chr1 );
+				chr2 = Character.toUpperCase( chr2 );
+				if( chr1 != chr2 && Character.toLowerCase( chr1 ) != Character.toLowerCase( chr2 ) ) {
+					return false;
+				}
+			}
+		}
+		return true;
 	}
 	
 	/**
@@ -0,0 +1,313 @@
+package arser;
+
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.RandomAccess;
+
+/**
+	A reusable list of the attributes of an element.<p>
+	The Parser passes the same AttributeList to every open event, holding the
+	names and values of the attributes as slices of a single character buffer,
+	so that parsing an element does not allocate. An Attribute is only created
+	when it is requested by get(), and the names and values may be examined
+	without creating one. ElementDecl validates and un-minimizes the list in place.<p>
+	The contents of the list are only valid until the next open event,
+	so a TokenHandler that keeps the attributes must copy them. A Handler
+	receives a copy that it may keep, unless it is one of the Handlers of
+	this package that copy or only examine the attributes themselves.
+*/
+public class AttributeList extends AbstractList<Attribute> implements RandomAccess {
+	private Attribute[] attributes = new Attribute[ 8 ];
+	private AttributeDecl[] decls = new AttributeDecl[ 8 ];
+	private String[] names = new String[ 8 ], values = new String[ 8 ];
+	private int[] nameOffsets = new int[ 8 ], nameLengths = new int[ 8 ];
+	private int[] valueOffsets = new int[ 8 ], valueLengths = new int[ 8 ];
+	private char[] text = new char[ 256 ];
+	private CharBuffer valueView = CharBuffer.wrap( text );
+	private int size, textLen;
+
+	/*
+		Return the attributes to pass to the specified Handler, which are copied
+		if they are reused and the Handler may keep them.
+	*/
+	static List<Attribute> forHandler( Handler handler, List<Attribute> attributes ) {
+		if( attributes instanceof AttributeList && !( handler instanceof Validator
+			|| handler instanceof Loader || handler instanceof TokenAdapter ) ) {
+			return new ArrayList<Attribute>( attributes );
+		}
+		return attributes;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+		@return the Attribute at the specified index, which is created if required.
+	*/
+	public Attribute get( int index ) {
+		checkIndex( index, size );
+		Attribute attribute = attributes[ index ];
+		if( attribute == null ) {
+			if( decls[ index ] != null ) {
+				attribute = new Attribute( decls[ index ], getValue( index ) );
+			} else if( getName( index ) != null ) {
+				attribute = new Attribute( getName( index ), getValue( index ) );
+			} else {
+				attribute = new Attribute( getValue( index ) );
+			}
+			attributes[ index ] = attribute;
+		}
+		return attribute;
+	}
+
+	public Attribute set( int index, Attribute attribute ) {
+		Attribute previous = get( index );
+		setAttribute( index, attribute );
+		return previous;
+	}
+
+	public void add( int index, Attribute attribute ) {
+		checkIndex( index, size + 1 );
+		insert( index );
+		setAttribute( index, attribute );
+	}
+
+	public Attribute remove( int index ) {
+		Attribute previous = get( index );
+		shift( index + 1, index, size - index - 1 );
+		size--;
+		clearEntry( size );
+		modCount++;
+		return previous;
+	}
+
+	public void clear() {
+		for( int index = 0; index < size; index++ ) {
+			clearEntry( index );
+		}
+		size = textLen = 0;
+		modCount++;
+	}
+
+	/**
+		@return the lower-case name of the attribute at the specified index,
+		or null if the attribute is minimized and has not been validated.
+	*/
+	public String getName( int index ) {
+		checkIndex( index, size );
+		if( attributes[ index ] != null ) {
+			return attributes[ index ].getName();
+		}
+		if( names[ index ] == null && nameLengths[ index ] >= 0 ) {
+			names[ index ] = new String( text, nameOffsets[ index ], nameLengths[ index ] ).toLowerCase( Locale.ROOT );
+		}
+		return names[ index ];
+	}
+
+	/** @return the value of the attribute at the specified index. */
+	public String getValue( int index ) {
+		checkIndex( index, size );
+		if( attributes[ index ] != null ) {
+			return attributes[ index ].getValue();
+		}
+		if( values[ index ] == null ) {
+			values[ index ] = new String( text, valueOffsets[ index ], valueLengths[ index ] );
+		}
+		return values[ index ];
+	}
+
+	/**
+		@return the value of the attribute at the specified index,
+		as a view that is only valid until the next call.
+	*/
+	public CharSequence getValueChars( int index ) {
+		checkIndex( index, size );
+		if( attributes[ index ] != null ) {
+			return attributes[ index ].getValue();
+		}
+		if( values[ index ] != null ) {
+			return values[ index ];
+		}
+		valueView.limit( valueOffsets[ index ] + valueLengths[ index ] );
+		valueView.position( valueOffsets[ index ] );
+		return valueView;
+	}
+
+	/** @return the declaration of the attribute at the specified index, or null if it is untyped. */
+	public AttributeDecl getAttributeDecl( int index ) {
+		checkIndex( index, size );
+		if( attributes[ index ] != null ) {
+			return attributes[ index ].getAttributeDecl();
+		}
+		return decls[ index ];
+	}
+
+	/**
+		@return the index of the attribute with the specified lower-case name, or -1 if not present.
+	*/
+	public int indexOf( String name ) {
+		for( int index = 0; index < size; index++ ) {
+			if( matches( index, name ) ) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/* Add an attribute, the name and value of which are in the specified buffer. The name may be the canonical name, or null. */
+	void add( String name, char[] buf, int nameOffset, int nameLength, int valueOffset, int valueLength ) {
+		int index = append();
+		names[ index ] = name;
+		nameOffsets[ index ] = textLen;
+		nameLengths[ index ] = nameLength;
+		appendText( buf, nameOffset, nameLength );
+		valueOffsets[ index ] = textLen;
+		valueLengths[ index ] = valueLength;
+		appendText( buf, valueOffset, valueLength );
+	}
+
+	/* Add a minimized attribute, the value of which is in the specified buffer, keeping its case. */
+	void addMinimized( char[] buf, int offset, int length ) {
+		int index = append();
+		nameLengths[ index ] = -1;
+		valueOffsets[ index ] = textLen;
+		valueLengths[ index ] = length;
+		appendText( buf, offset, length );
+	}
+
+	/* Add an attribute with the default value of the specified declaration. */
+	void addImplied( AttributeDecl decl ) {
+		int index = append();
+		decls[ index ] = decl;
+		names[ index ] = decl.getName();
+		values[ index ] = decl.getDefaultValue();
+	}
+
+	/* Declare the attribute at the specified index, which takes the name of the declaration. */
+	void setAttributeDecl( int index, AttributeDecl decl ) {
+		if( attributes[ index ] != null ) {
+			values[ index ] = attributes[ index ].getValue();
+			attributes[ index ] = null;
+		}
+		decls[ index ] = decl;
+		names[ index ] = decl.getName();
+		nameLengths[ index ] = 0;
+	}
+
+	/* Return true if the attribute at the specified index has the specified lower-case name. */
+	boolean matches( int index, String name ) {
+		if( attributes[ index ] != null || names[ index ] != null ) {
+			String attName = getName( index );
+			return attName == name || name.equals( attName );
+		}
+		int length = nameLengths[ index ];
+		if( length != name.length() ) {
+			return false;
+		}
+		for( int idx = 0, offset = nameOffsets[ index ]; idx < length; idx++ ) {
+			char chr = text[ offset + idx ];
+			if( chr != name.charAt( idx ) && Character.toLowerCase( chr ) != name.charAt( idx ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Copy the specified attributes into this list. */
+	void copy( List<Attribute> list ) {
+		clear();
+		if( list instanceof AttributeList ) {
+			AttributeList source = ( AttributeList ) list;
+			while( attributes.length < source.size ) {
+				grow();
+			}
+			System.arraycopy( source.attributes, 0, attributes, 0, source.size );
+			System.arraycopy( source.decls, 0, decls, 0, source.size );
+			System.arraycopy( source.names, 0, names, 0, source.size );
+			System.arraycopy( source.values, 0, values, 0, source.size );
+			System.arraycopy( source.nameOffsets, 0, nameOffsets, 0, source.size );
+			System.arraycopy( source.nameLengths, 0, nameLengths, 0, source.size );
+			System.arraycopy( source.valueOffsets, 0, valueOffsets, 0, source.size );
+			System.arraycopy( source.valueLengths, 0, valueLengths, 0, source.size );
+			size = source.size;
+			appendText( source.text, 0, source.textLen );
+		} else {
+			for( int index = 0, count = list.size(); index < count; index++ ) {
+				add( list.get( index ) );
+			}
+		}
+	}
+
+	private void setAttribute( int index, Attribute attribute ) {
+		if( attribute == null ) {
+			throw new NullPointerException();
+		}
+		attributes[ index ] = attribute;
+		decls[ index ] = null;
+		names[ index ] = values[ index ] = null;
+	}
+
+	private int append() {
+		if( size >= attributes.length ) {
+			grow();
+		}
+		modCount++;
+		return size++;
+	}
+
+	private void insert( int index ) {
+		append();
+		shift( index, index + 1, size - index - 1 );
+		clearEntry( index );
+	}
+
+	private void shift( int from, int to, int count ) {
+		System.arraycopy( attributes, from, attributes, to, count );
+		System.arraycopy( decls, from, decls, to, count );
+		System.arraycopy( names, from, names, to, count );
+		System.arraycopy( values, from, values, to, count );
+		System.arraycopy( nameOffsets, from, nameOffsets, to, count );
+		System.arraycopy( nameLengths, from, nameLengths, to, count );
+		System.arraycopy( valueOffsets, from, valueOffsets, to, count );
+		System.arraycopy( valueLengths, from, valueLengths, to, count );
+	}
+
+	private void clearEntry( int index ) {
+		attributes[ index ] = null;
+		decls[ index ] = null;
+		names[ index ] = values[ index ] = null;
+		nameLengths[ index ] = valueLengths[ index ] = 0;
+	}
+
+	private void grow() {
+		int length = attributes.length * 2;
+		attributes = Arrays.copyOf( attributes, length );
+		decls = Arrays.copyOf( decls, length );
+		names = Arrays.copyOf( names, length );
+		values = Arrays.copyOf( values, length );
+		nameOffsets = Arrays.copyOf( nameOffsets, length );
+		nameLengths = Arrays.copyOf( nameLengths, length );
+		valueOffsets = Arrays.copyOf( valueOffsets, length );
+		valueLengths = Arrays.copyOf( valueLengths, length );
+	}
+
+	private void appendText( char[] buf, int offset, int length ) {
+		if( textLen + length > text.length ) {
+			text = Arrays.copyOf( text, Math.max( text.length * 2, textLen + length ) );
+			valueView = CharBuffer.wrap( text );
+		}
+		System.arraycopy( buf, offset, text, textLen, length );
+		textLen += length;
+	}
+
+	private static void checkIndex( int index, int size ) {
+		if( index < 0 || index >= size ) {
+			throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+		}
+	}
+}
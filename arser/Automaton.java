@@ -0,0 +1,181 @@
+package arser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+	An immutable deterministic automaton for a ContentModel.<p>
+	The automaton is built by subset construction over the token positions
+	of the model, and may be shared by any number of validation contexts,
+	the state of each being a single int. State 0 is the dead state, which
+	can never become complete, and state 1 is the initial state.<p>
+	Tokens are mapped to symbols by symbol(), with names that do not appear
+	in the model sharing a single symbol, so that shifting a token is a
+	single lookup in the transition table.
+*/
+public class Automaton {
+	/** The maximum number of states, beyond which compile() gives up. */
+	public static final int MAX_STATES = 1024;
+	public static final int DEAD = 0, START = 1;
+
+	private Map<String,Integer> symbols;
+	private int symbolCount;
+	private int[] transitions;
+	private boolean[] complete;
+
+	private Automaton( Map<String,Integer> symbolMap, int[] table, boolean[] completeStates ) {
+		symbols = symbolMap;
+		symbolCount = symbolMap.size() + 1;
+		transitions = table;
+		complete = completeStates;
+	}
+
+	/**
+		@return an Automaton equivalent to the specified model, or null if
+		the model cannot be analyzed or would require more than MAX_STATES states.
+	*/
+	public static Automaton compile( ContentModel model ) {
+		Positions positions = Positions.analyze( model );
+		if( positions == null ) {
+			return null;
+		}
+		/* Assign a symbol to each distinct token, with the last symbol for any other token. */
+		Map<String,Integer> symbolMap = new HashMap<String,Integer>();
+		List<long[]> matches = new ArrayList<long[]>();
+		for( int position = 0; position < positions.size(); position++ ) {
+			String token = positions.token( position );
+			if( token != null && !symbolMap.containsKey( token ) ) {
+				symbolMap.put( token, Integer.valueOf( symbolMap.size() ) );
+				matches.add( positions.match( token ) );
+			}
+		}
+		matches.add( positions.match( "" ) );
+		int symbolCount = matches.size();
+		/* Subset construction. The dead state is the empty set, and the initial state has no set. */
+		List<long[]> states = new ArrayList<long[]>();
+		Map<Key,Integer> stateMap = new HashMap<Key,Integer>();
+		long[] empty = new long[ positions.words() ];
+		states.add( empty );
+		stateMap.put( new Key( empty ), Integer.valueOf( DEAD ) );
+		states.add( null );
+		/* The table grows by doubling as states are added, and is trimmed once complete. */
+		int[] table = new int[ symbolCount * 2 ];
+		for( int state = START; state < states.size(); state++ ) {
+			long[] follow = positions.first();
+			long[] set = states.get( state );
+			if( set != null ) {
+				follow = new long[ positions.words() ];
+				for( int position = 0; position < positions.size(); position++ ) {
+					if( ( set[ position >> 6 ] & ( 1L << position ) ) != 0 ) {
+						or( follow, positions.follow( position ) );
+					}
+				}
+			}
+			for( int symbol = 0; symbol < symbolCount; symbol++ ) {
+				long[] next = and( follow, matches.get( symbol ) );
+				Key key = new Key( next );
+				Integer nextState = stateMap.get( key );
+				if( nextState == null ) {
+					if( states.size() >= MAX_STATES ) {
+						return null;
+					}
+					nextState = Integer.valueOf( states.size() );
+					stateMap.put( key, nextState );
+					states.add( next );
+					if( symbolCount * states.size() > table.length ) {
+						table = Arrays.copyOf( table, table.length * 2 );
+					}
+				}
+				table[ state * symbolCount + symbol ] = nextState.intValue();
+			}
+		}
+		if( table.length > symbolCount * states.size() ) {
+			table = Arrays.copyOf( table, symbolCount * states.size() );
+		}
+		boolean[] completeStates = new boolean[ states.size() ];
+		completeStates[ START ] = positions.nullable();
+		for( int state = START + 1; state < states.size(); state++ ) {
+			completeStates[ state ] = intersects( states.get( state ), positions.last() );
+		}
+		return new Automaton( symbolMap, table, completeStates );
+	}
+
+	/** @return the symbol for the specified lower-case token. */
+	public int symbol( String token ) {
+		Integer symbol = symbols.get( token );
+		return symbol != null ? symbol.intValue() : symbolCount - 1;
+	}
+
+	/** @return the number of symbols, including the symbol shared by unknown tokens. */
+	public int getSymbolCount() {
+		return symbolCount;
+	}
+
+	/** @return the number of states, including the dead and initial states. */
+	public int getStateCount() {
+		return complete.length;
+	}
+
+	/** @return the state following the specified state and symbol. */
+	public int shift( int state, int symbol ) {
+		return transitions[ state * symbolCount + symbol ];
+	}
+
+	/** @return the state following the specified state and lower-case token. */
+	public int shift( int state, String token ) {
+		return transitions[ state * symbolCount + symbol( token ) ];
+	}
+
+	/** @return true if no more input is required in the specified state. */
+	public boolean complete( int state ) {
+		return complete[ state ];
+	}
+
+	/** @return true if the specified state can possibly become complete. */
+	public boolean marked( int state ) {
+		return state != DEAD;
+	}
+
+	private static void or( long[] dest, long[] src ) {
+		for( int idx = 0; idx < dest.length; idx++ ) {
+			dest[ idx ] |= src[ idx ];
+		}
+	}
+
+	private static long[] and( long[] lhs, long[] rhs ) {
+		long[] result = new long[ lhs.length ];
+		for( int idx = 0; idx < result.length; idx++ ) {
+			result[ idx ] = lhs[ idx ] & rhs[ idx ];
+		}
+		return result;
+	}
+
+	private static boolean intersects( long[] lhs, long[] rhs ) {
+		for( int idx = 0; idx < lhs.length; idx++ ) {
+			if( ( lhs[ idx ] & rhs[ idx ] ) != 0 ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* A position set usable as a HashMap key. */
+	private static class Key {
+		private long[] set;
+
+		public Key( long[] positionSet ) {
+			set = positionSet;
+		}
+
+		public boolean equals( Object object ) {
+			return ( object instanceof Key ) && Arrays.equals( set, ((Key)object).set );
+		}
+
+		public int hashCode() {
+			return Arrays.hashCode( set );
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package arser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+	A Reader that decodes ISO-8859-1 or UTF-8 bytes directly into the buffer
+	of the caller, without the overhead of a CharsetDecoder.<p>
+	Malformed UTF-8 sequences are replaced with U+FFFD.
+*/
+public class ByteReader extends Reader {
+	private static final int BYTE_BUF_LEN = 32768;
+	private static final int WINDOW_LEN = 1 << 26;
+	/* The longest UTF-8 sequence, which a window must be able to hold. */
+	private static final int MIN_WINDOW_LEN = 4;
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private InputStream input;
+	private FileChannel channel;
+	private int windowLength;
+	/* The bytes being decoded, from byteIdx to byteLen, the position of the first, and the position where decoding began. */
+	private ByteBuffer window;
+	private long windowStart, origin;
+	private byte[] bytes;
+	private int byteIdx, byteLen, pending = -1;
+	private boolean utf8;
+
+	/**
+		@param inputStream The bytes to decode.
+		@param encoding Either "ISO-8859-1" or "UTF-8".
+	*/
+	public ByteReader( InputStream inputStream, String encoding ) throws UnsupportedEncodingException {
+		utf8 = isUtf8( encoding );
+		input = inputStream;
+		bytes = new byte[ BYTE_BUF_LEN ];
+		window = ByteBuffer.wrap( bytes );
+	}
+
+	/**
+		@param byteBuffer The bytes to decode in place, from the current position to the limit.
+		The position of the buffer is not changed.
+		@param encoding Either "ISO-8859-1" or "UTF-8".
+	*/
+	public ByteReader( ByteBuffer byteBuffer, String encoding ) throws UnsupportedEncodingException {
+		utf8 = isUtf8( encoding );
+		window = byteBuffer;
+		byteIdx = byteBuffer.position();
+		byteLen = byteBuffer.limit();
+		origin = byteIdx;
+	}
+
+	/**
+		Decode a file by mapping it into memory in windows of 64MB, so that
+		files of any size may be read without copying through a stream.
+		@param fileChannel The channel to decode from the current position to the end.
+		@param encoding Either "ISO-8859-1" or "UTF-8".
+	*/
+	public ByteReader( FileChannel fileChannel, String encoding ) throws IOException {
+		this( fileChannel, encoding, WINDOW_LEN );
+	}
+
+	/**
+		Decode a file by mapping it into memory in windows of the specified length.
+		The bytes are decoded directly from each mapped window, and the next window
+		is mapped from the first byte not decoded, so a UTF-8 sequence that straddles
+		two windows is mapped whole.
+		@param fileChannel The channel to decode from the current position to the end.
+		@param encoding Either "ISO-8859-1" or "UTF-8".
+		@param length The length of each window in bytes, at least 4.
+	*/
+	public ByteReader( FileChannel fileChannel, String encoding, int length ) throws IOException {
+		utf8 = isUtf8( encoding );
+		channel = fileChannel;
+		windowLength = Math.max( length, MIN_WINDOW_LEN );
+		windowStart = origin = fileChannel.position();
+		window = ByteBuffer.allocate( 0 );
+	}
+
+	/** @return true if the specified encoding is decoded by this class. */
+	public static boolean isSupported( String encoding ) {
+		return "ISO-8859-1".equalsIgnoreCase( encoding ) || "ISO8859_1".equalsIgnoreCase( encoding )
+			|| "Latin1".equalsIgnoreCase( encoding ) || isUtf8Name( encoding );
+	}
+
+	/**
+		@return the number of bytes decoded into the characters returned by read(),
+		including both of a surrogate pair of which only the first has been returned.
+	*/
+	public long getPosition() {
+		return windowStart + byteIdx - origin;
+	}
+
+	/* Return true if UTF-8 is decoded. */
+	boolean isUtf8() {
+		return utf8;
+	}
+
+	public int read( char[] cbuf, int off, int len ) throws IOException {
+		if( len <= 0 ) {
+			return 0;
+		}
+		int idx = off, end = off + len;
+		if( pending >= 0 ) {
+			/* Low surrogate from the previous call. */
+			cbuf[ idx++ ] = ( char ) pending;
+			pending = -1;
+		}
+		while( idx < end ) {
+			if( byteIdx >= byteLen ) {
+				/* Only block for more input if nothing has been decoded. */
+				if( idx > off || !fill() ) {
+					break;
+				}
+			}
+			if( utf8 ) {
+				idx = decodeUtf8( cbuf, idx, end, idx > off );
+				if( idx < 0 ) {
+					idx = -idx - 1;
+					break;
+				}
+			} else {
+				int count = Math.min( end - idx, byteLen - byteIdx );
+				for( int stop = idx + count; idx < stop; idx++ ) {
+					cbuf[ idx ] = ( char ) ( window.get( byteIdx++ ) & 0xFF );
+				}
+			}
+		}
+		return idx > off ? idx - off : -1;
+	}
+
+	public void close() throws IOException {
+		if( input != null ) {
+			input.close();
+		}
+		if( channel != null ) {
+			channel.close();
+		}
+	}
+
+	/* Decode UTF-8 into the buffer, returning the new index, or -( index + 1 ) if more input is required. */
+	private int decodeUtf8( char[] cbuf, int idx, int end, boolean decoded ) throws IOException {
+		int start = idx;
+		while( idx < end && byteIdx < byteLen ) {
+			int lead = window.get( byteIdx );
+			if( lead >= 0 ) {
+				/* ASCII. */
+				cbuf[ idx++ ] = ( char ) lead;
+				byteIdx++;
+				continue;
+			}
+			/* The range of the second byte excludes overlong forms, surrogates and values above U+10FFFF. */
+			int need, chr, low = 0x80, high = 0xBF;
+			lead &= 0xFF;
+			if( lead >= 0xC2 && lead <= 0xDF ) {
+				need = 1; chr = lead & 0x1F;
+			} else if( lead >= 0xE0 && lead <= 0xEF ) {
+				need = 2; chr = lead & 0x0F;
+				if( lead == 0xE0 ) low = 0xA0;
+				if( lead == 0xED ) high = 0x9F;
+			} else if( lead >= 0xF0 && lead <= 0xF4 ) {
+				need = 3; chr = lead & 0x07;
+				if( lead == 0xF0 ) low = 0x90;
+				if( lead == 0xF4 ) high = 0x8F;
+			} else {
+				cbuf[ idx++ ] = REPLACEMENT;
+				byteIdx++;
+				continue;
+			}
+			int available = byteLen - byteIdx - 1;
+			if( available < need ) {
+				/* Sequence continues beyond the available bytes. */
+				if( decoded || idx > start ) {
+					return -( idx + 1 );
+				}
+				if( fill() ) {
+					continue;
+				}
+			}
+			int count = 1;
+			while( count <= need && count <= available ) {
+				int next = window.get( byteIdx + count ) & 0xFF;
+				if( next < low || next > high ) {
+					break;
+				}
+				chr = ( chr << 6 ) | ( next & 0x3F );
+				low = 0x80;
+				high = 0xBF;
+				count++;
+			}
+			byteIdx += count;
+			if( count <= need ) {
+				cbuf[ idx++ ] = REPLACEMENT;
+			} else if( chr >= 0x10000 ) {
+				cbuf[ idx++ ] = Character.highSurrogate( chr );
+				if( idx < end ) {
+					cbuf[ idx++ ] = Character.lowSurrogate( chr );
+				} else {
+					pending = Character.lowSurrogate( chr );
+				}
+			} else {
+				cbuf[ idx++ ] = ( char ) chr;
+			}
+		}
+		return idx;
+	}
+
+	/* Make more bytes available following any remaining bytes, returning false if there are no more. */
+	private boolean fill() throws IOException {
+		if( channel != null ) {
+			/* Map the next window from the first remaining byte. */
+			long start = windowStart + byteIdx;
+			long length = Math.min( windowLength, channel.size() - start );
+			if( length <= byteLen - byteIdx ) {
+				return false;
+			}
+			window = channel.map( FileChannel.MapMode.READ_ONLY, start, length );
+			windowStart = start;
+			byteIdx = 0;
+			byteLen = ( int ) length;
+			return true;
+		}
+		if( input == null ) {
+			return false;
+		}
+		/* Move the remaining bytes to the start of the buffer and read more. */
+		int remaining = byteLen - byteIdx;
+		System.arraycopy( bytes, byteIdx, bytes, 0, remaining );
+		windowStart += byteIdx;
+		byteIdx = 0;
+		byteLen = remaining;
+		int count = input.read( bytes, byteLen, bytes.length - byteLen );
+		if( count <= 0 ) {
+			return false;
+		}
+		byteLen += count;
+		return true;
+	}
+
+	private static boolean isUtf8( String encoding ) throws UnsupportedEncodingException {
+		if( !isSupported( encoding ) ) {
+			throw new UnsupportedEncodingException( encoding );
+		}
+		return isUtf8Name( encoding );
+	}
+
+	private static boolean isUtf8Name( String encoding ) {
+		return "UTF-8".equalsIgnoreCase( encoding ) || "UTF8".equalsIgnoreCase( encoding );
+	}
+}
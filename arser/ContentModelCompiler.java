@@ -30,6 +30,14 @@ public class ContentModelCompiler {
 		return compile();
 	}
 
+	/**
+		@return the shared deterministic Automaton for the specified expression,
+		or null if it would exceed Automaton.MAX_STATES.
+	*/
+	public Automaton compileAutomaton( String expression ) throws ParseException {
+		return Automaton.compile( compile( expression ) );
+	}
+
 	private ContentModel compile() throws ParseException  {
 		ContentModel model = compile2();
 		while( idx < expr.length && expr[ idx ] == ',' ) {
@@ -1,75 +1,291 @@
-
 package arser;
 
+import java.util.Arrays;
+
 /**
-	A linked-list representing the element context for the Validator.
+	A stack representing the element context for the Validator.<p>
+	Each open element is represented by its element id, automaton state and mark
+	in preallocated arrays that grow as required, so that opening an element
+	does not allocate. The effective inclusions and exclusions of each level
+	are held as bitsets of element ids, a level without its own inclusions or
+	exclusions sharing the bitset of its parent.
 */
 public class Context {
-	private Context parentContext;
-	private ElementDecl elementDecl;
-	private ContentModel model;
-	private boolean hasInclusions, hasExclusions, mark;
-	
+	private static final Automaton ANY = Automaton.compile( new RepetitionModel( new AnyTokenModel(), true ) );
+	private static final int INITIAL_DEPTH = 32;
+
+	private Doctype doctype;
+	private int depth, words;
+	private ElementDecl[] decls = new ElementDecl[ INITIAL_DEPTH ];
+	private int[] ids = new int[ INITIAL_DEPTH ];
+	private int[] states = new int[ INITIAL_DEPTH ];
+	private boolean[] marks = new boolean[ INITIAL_DEPTH ];
+	private ContentModel[] models = new ContentModel[ INITIAL_DEPTH ];
+	private ElementDecl[] modelDecls = new ElementDecl[ INITIAL_DEPTH ];
+	private int[] inclusionLevels = new int[ INITIAL_DEPTH ];
+	private int[] exclusionLevels = new int[ INITIAL_DEPTH ];
+	private long[] inclusions = new long[ 0 ], exclusions = new long[ 0 ];
+
 	public Context() {
-		model = new RepetitionModel( new AnyTokenModel(), true );
-		mark = true;
+		states[ 0 ] = Automaton.START;
+		inclusionLevels[ 0 ] = exclusionLevels[ 0 ] = -1;
 	}
-	
+
+	/**
+		Create a copy of the parent context with the specified element open.
+		@deprecated Call push() on a single Context instead, which does not allocate.
+	*/
+	@Deprecated
 	public Context( ElementDecl decl, Context parent ) {
-		parentContext = parent;
-		elementDecl = decl;
-		model = decl.getContentModel();
-		hasInclusions = decl.hasInclusions() || parentContext.hasInclusions;
-		hasExclusions = decl.hasExclusions() || parentContext.hasExclusions;
-		mark = true;
+		copyFrom( parent );
+		/* Do not reset a content model shared with the parent. */
+		Arrays.fill( modelDecls, depth + 1, modelDecls.length, null );
+		push( decl, doctype != null ? doctype.getElementId( decl.getName() ) : -1 );
 	}
 
+	/** Set the Doctype used to resolve element ids. This must be done before any element is pushed. */
+	public void setDoctype( Doctype dt ) throws ParseException {
+		if( depth > 0 && dt != doctype ) {
+			throw new ParseException( "Doctype may not be changed within an element.", toString() );
+		}
+		doctype = dt;
+		words = dt == null ? 0 : ( dt.getElementCount() + 63 ) / 64;
+		inclusions = new long[ words * decls.length ];
+		exclusions = new long[ words * decls.length ];
+	}
+
+	/**
+		@return a copy of this context with the current element closed, or null if no element is open.
+		@deprecated Use getDepth() and pop() instead.
+	*/
+	@Deprecated
 	public Context getParent() {
-		return parentContext;
+		if( depth == 0 ) {
+			return null;
+		}
+		Context parent = new Context();
+		parent.copyFrom( this );
+		parent.pop();
+		return parent;
+	}
+
+	/** @return the number of open elements. */
+	public int getDepth() {
+		return depth;
+	}
+
+	/** @return the declaration of the current element, or null if no element is open. */
+	public ElementDecl getElementDecl() {
+		return decls[ depth ];
 	}
 
-	public ElementDecl getElementDecl() {	
-		return elementDecl;
+	/** @return the id of the current element, or -1 if no element is open. */
+	public int getElementId() {
+		return depth > 0 ? ids[ depth ] : -1;
+	}
+
+	/** Open the element with the specified id within the current element. */
+	public void push( int id ) {
+		push( doctype.getElementDecl( id ), id );
+	}
+
+	/* Open the specified element, the inclusions and exclusions of which are only resolved if it has an id. */
+	private void push( ElementDecl decl, int id ) {
+		if( depth + 1 >= decls.length ) {
+			grow();
+		}
+		int parent = depth++;
+		decls[ depth ] = decl;
+		ids[ depth ] = id;
+		states[ depth ] = Automaton.START;
+		if( decl.getAutomaton() == null ) {
+			/* Content model too large for an automaton, reuse the model at this level if possible. */
+			if( modelDecls[ depth ] == decl ) {
+				models[ depth ].reset();
+			} else {
+				models[ depth ] = decl.getContentModel();
+				modelDecls[ depth ] = decl;
+			}
+			marks[ depth ] = true;
+		}
+		inclusionLevels[ depth ] = inherit( id >= 0 ? doctype.getInclusions( id ) : null, inclusions, inclusionLevels[ parent ] );
+		exclusionLevels[ depth ] = inherit( id >= 0 ? doctype.getExclusions( id ) : null, exclusions, exclusionLevels[ parent ] );
+	}
+
+	/** Close the current element. */
+	public void pop() {
+		decls[ depth-- ] = null;
+	}
+
+	/** Close any open elements and restart the top level, as at the start of a document. */
+	public void reset() {
+		while( depth > 0 ) {
+			pop();
+		}
+		states[ 0 ] = Automaton.START;
 	}
 
 	public String toString() {
-		if( elementDecl != null ) {
-			return parentContext.toString() + "<" + elementDecl.getName() + ">";
+		StringBuilder sb = new StringBuilder();
+		for( int level = 1; level <= depth; level++ ) {
+			sb.append( '<' );
+			sb.append( decls[ level ].getName() );
+			sb.append( '>' );
 		}
-		return "";
+		return sb.toString();
+	}
+
+	/* Return true is the element with the specified id is permitted as an inclusion. */
+	public boolean isIncluded( int id ) {
+		return contains( inclusions, inclusionLevels[ depth ], id );
 	}
 
-	/* Return true is the specified element name is permitted as an inclusion. */
+	/* Return true is the element with the specified id has been excluded. */
+	public boolean isExcluded( int id ) {
+		return contains( exclusions, exclusionLevels[ depth ], id );
+	}
+
+	/**
+		@return true if the specified element name is permitted as an inclusion.
+		@deprecated Use isIncluded( int ) with the element id.
+	*/
+	@Deprecated
 	public boolean isIncluded( String name ) {
-		boolean included = false;
-		if( hasInclusions ) {
-			included = elementDecl.hasInclusion( name ) || parentContext.isIncluded( name );
+		for( int level = depth; level > 0; level-- ) {
+			if( decls[ level ].hasInclusion( name ) ) {
+				return true;
+			}
 		}
-		return included;
+		return false;
 	}
-	
-	/* Return true is the specified element name has been excluded. */
+
+	/**
+		@return true if the specified element name has been excluded.
+		@deprecated Use isExcluded( int ) with the element id.
+	*/
+	@Deprecated
 	public boolean isExcluded( String name ) {
-		boolean excluded = false;
-		if( hasExclusions ) {
-			excluded = elementDecl.hasExclusion( name ) || parentContext.isExcluded( name );
+		for( int level = depth; level > 0; level-- ) {
+			if( decls[ level ].hasExclusion( name ) ) {
+				return true;
+			}
 		}
-		return excluded;
+		return false;
 	}
 
-	/* Advance the content model using the element name. */
+	/* Advance the content model using the lower-case element name. */
 	public void shift( String name ) {
-		model.shift( name, mark );
-		mark = false;
+		ElementDecl decl = decls[ depth ];
+		Automaton automaton = decl != null ? decl.getAutomaton() : ANY;
+		if( automaton != null ) {
+			states[ depth ] = automaton.shift( states[ depth ], name );
+		} else {
+			models[ depth ].shift( name, marks[ depth ] );
+			marks[ depth ] = false;
+		}
 	}
-	
+
 	/* Return true if no more input is required. */
 	public boolean complete() {
-		return ( mark && model.empty() ) || model.marked( false );
+		ElementDecl decl = decls[ depth ];
+		Automaton automaton = decl != null ? decl.getAutomaton() : ANY;
+		if( automaton != null ) {
+			return automaton.complete( states[ depth ] );
+		}
+		ContentModel model = models[ depth ];
+		return ( marks[ depth ] && model.empty() ) || model.marked( false );
 	}
-	
+
 	/* Returns true if we can possibly become complete.*/
 	public boolean marked() {
-		return mark || model.marked( true );
+		ElementDecl decl = decls[ depth ];
+		Automaton automaton = decl != null ? decl.getAutomaton() : ANY;
+		if( automaton != null ) {
+			return automaton.marked( states[ depth ] );
+		}
+		return marks[ depth ] || models[ depth ].marked( true );
+	}
+
+	/**
+		@return a copy of this context, or null if an open element has a content model
+		that is not represented by an Automaton, the state of which cannot be copied.
+	*/
+	public Context copy() {
+		Context context = new Context();
+		context.copyFrom( this );
+		context.models = new ContentModel[ decls.length ];
+		context.modelDecls = new ElementDecl[ decls.length ];
+		for( int level = 1; level <= depth; level++ ) {
+			if( decls[ level ].getAutomaton() == null ) {
+				return null;
+			}
+		}
+		return context;
+	}
+
+	/** @return true if the specified context has the same open elements in the same states as this one. */
+	public boolean isEquivalent( Context context ) {
+		if( context.doctype != doctype || context.depth != depth || context.states[ 0 ] != states[ 0 ] ) {
+			return false;
+		}
+		for( int level = 1; level <= depth; level++ ) {
+			if( context.ids[ level ] != ids[ level ] || context.states[ level ] != states[ level ]
+				|| decls[ level ].getAutomaton() == null ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Copy the specified context, sharing the content models that are not represented by an Automaton. */
+	private void copyFrom( Context context ) {
+		doctype = context.doctype;
+		words = context.words;
+		depth = context.depth;
+		int length = context.decls.length;
+		decls = Arrays.copyOf( context.decls, length );
+		ids = Arrays.copyOf( context.ids, length );
+		states = Arrays.copyOf( context.states, length );
+		marks = Arrays.copyOf( context.marks, length );
+		models = Arrays.copyOf( context.models, length );
+		modelDecls = Arrays.copyOf( context.modelDecls, length );
+		inclusionLevels = Arrays.copyOf( context.inclusionLevels, length );
+		exclusionLevels = Arrays.copyOf( context.exclusionLevels, length );
+		inclusions = Arrays.copyOf( context.inclusions, context.inclusions.length );
+		exclusions = Arrays.copyOf( context.exclusions, context.exclusions.length );
+	}
+
+	/* Return the level whose bitset is effective after combining the specified set with that of the parent level. */
+	private int inherit( long[] set, long[] sets, int parentLevel ) {
+		if( set == null ) {
+			return parentLevel;
+		}
+		int offset = depth * words;
+		for( int idx = 0; idx < words; idx++ ) {
+			long bits = set[ idx ];
+			if( parentLevel >= 0 ) {
+				bits |= sets[ parentLevel * words + idx ];
+			}
+			sets[ offset + idx ] = bits;
+		}
+		return depth;
+	}
+
+	private boolean contains( long[] sets, int level, int id ) {
+		return level >= 0 && ( sets[ level * words + ( id >> 6 ) ] & ( 1L << id ) ) != 0;
+	}
+
+	private void grow() {
+		int length = decls.length * 2;
+		decls = Arrays.copyOf( decls, length );
+		ids = Arrays.copyOf( ids, length );
+		states = Arrays.copyOf( states, length );
+		marks = Arrays.copyOf( marks, length );
+		models = Arrays.copyOf( models, length );
+		modelDecls = Arrays.copyOf( modelDecls, length );
+		inclusionLevels = Arrays.copyOf( inclusionLevels, length );
+		exclusionLevels = Arrays.copyOf( exclusionLevels, length );
+		inclusions = Arrays.copyOf( inclusions, words * length );
+		exclusions = Arrays.copyOf( exclusions, words * length );
 	}
 }
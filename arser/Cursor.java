@@ -0,0 +1,184 @@
+package arser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+	A pull interface to the Parser, in which the application requests each
+	markup event in turn rather than receiving calls to a Handler.<p>
+	Input is read and parsed only as far as is required to return the next
+	event, so the application may stop at any point by calling close().
+	If a Doctype is specified, the events are those passed on by a Validator,
+	so that omitted tags are included and every open event has a matching
+	close event.<p>
+	The text and name of the current event are views of the buffers of the
+	Cursor, which are only valid until the next call to next().
+*/
+public class Cursor {
+	public static final int
+		BEGIN = EventQueue.BEGIN,
+		COMMENT = EventQueue.COMMENT,
+		DECLARATION = EventQueue.DECLARATION,
+		PI = EventQueue.PI,
+		ENTITY = EventQueue.ENTITY,
+		OPEN = EventQueue.OPEN,
+		CHARACTERS = EventQueue.CHARACTERS,
+		SECTION = EventQueue.SECTION,
+		CLOSE = EventQueue.CLOSE,
+		END = EventQueue.END;
+
+	private static final int INPUT_BUF_LEN = 8192;
+
+	private Reader input;
+	private Parser parser = new Parser();
+	private Doctype doctype;
+	private EventQueue queue = new EventQueue();
+	private char[] inputBuf = new char[ INPUT_BUF_LEN ];
+	private int index = -1, depth;
+	private boolean finished, empty;
+
+	/**
+		Return the events of the specified input as parsed.
+	*/
+	public Cursor( Reader input ) throws ParseException {
+		this.input = input;
+		parser.begin( queue );
+	}
+
+	/**
+		Return the events of the specified input as validated by the specified Doctype.
+	*/
+	public Cursor( Reader input, Doctype doctype ) throws ParseException {
+		this.input = input;
+		this.doctype = doctype;
+		Validator validator = new Validator( new TokenAdapter( queue ) );
+		validator.doctype( doctype );
+		parser.setDoctype( doctype );
+		parser.begin( new HandlerAdapter( validator ) );
+	}
+
+	/**
+		@return true if there are more events, reading more input if required.
+	*/
+	public boolean hasNext() throws IOException, ParseException {
+		while( index + 1 >= queue.size() && !finished ) {
+			int count = input.read( inputBuf, 0, INPUT_BUF_LEN );
+			if( count < 0 ) {
+				finished = true;
+				parser.push( inputBuf, 0, 0, true );
+			} else {
+				parser.push( inputBuf, 0, count, false );
+			}
+		}
+		return index + 1 < queue.size();
+	}
+
+	/**
+		Advance to the next event.
+		@return the type of the event.
+		@throws NoSuchElementException if there are no more events.
+	*/
+	public int next() throws IOException, ParseException {
+		if( index + 1 >= queue.size() ) {
+			/* The current event is no longer required. */
+			queue.clear();
+			index = -1;
+		}
+		if( !hasNext() ) {
+			throw new NoSuchElementException();
+		}
+		index++;
+		int type = queue.getType( index );
+		empty = false;
+		if( type == OPEN ) {
+			/* Elements declared empty have no close event. */
+			ElementDecl elementDecl = doctype != null ? doctype.getElementDecl( queue.getName( index ).toString() ) : null;
+			empty = elementDecl != null && elementDecl.isEmpty();
+			if( !empty ) {
+				depth++;
+			}
+		} else if( type == CLOSE ) {
+			depth--;
+		}
+		return type;
+	}
+
+	/**
+		If the current event is an open event, advance to the matching close event,
+		skipping the content of the element. Without a Doctype, elements must not
+		have omitted close tags, and empty elements must be closed.
+	*/
+	public void skip() throws IOException, ParseException {
+		if( getEventType() == OPEN && !empty ) {
+			int level = depth - 1;
+			while( depth > level && next() != END ) {
+			}
+		}
+	}
+
+	/** @return the type of the current event. */
+	public int getEventType() {
+		if( index < 0 ) {
+			throw new IllegalStateException( "No current event." );
+		}
+		return queue.getType( index );
+	}
+
+	/** @return the number of elements containing the current event, or for open and close events, the element itself. */
+	public int getDepth() {
+		int type = getEventType();
+		return ( type == CLOSE || ( type == OPEN && empty ) ) ? depth + 1 : depth;
+	}
+
+	/** @return the element name of an open or close event. */
+	public CharSequence getName() {
+		int type = getEventType();
+		if( type != OPEN && type != CLOSE ) {
+			throw new IllegalStateException( "Not an open or close event." );
+		}
+		return queue.getName( index );
+	}
+
+	/** @return the attributes of an open event. */
+	public List<Attribute> getAttributes() {
+		if( getEventType() != OPEN ) {
+			throw new IllegalStateException( "Not an open event." );
+		}
+		return queue.getAttributes( index );
+	}
+
+	/** @return the text of a comment, processing-instruction, entity or character event. */
+	public CharSequence getText() {
+		int type = getEventType();
+		if( type != COMMENT && type != PI && type != ENTITY && type != CHARACTERS && type != SECTION ) {
+			throw new IllegalStateException( "Not a text event." );
+		}
+		return queue.getText( index );
+	}
+
+	/** @return the param of a marked section event. */
+	public String getParam() {
+		if( getEventType() != SECTION ) {
+			throw new IllegalStateException( "Not a marked section event." );
+		}
+		return queue.getParam( index );
+	}
+
+	/** @return the declaration of a declaration event. */
+	public Declaration getDeclaration() {
+		if( getEventType() != DECLARATION ) {
+			throw new IllegalStateException( "Not a declaration event." );
+		}
+		return queue.getDeclaration( index );
+	}
+
+	/** Stop parsing and close the input. */
+	public void close() throws IOException {
+		finished = true;
+		queue.clear();
+		index = -1;
+		input.close();
+	}
+}
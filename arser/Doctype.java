@@ -12,7 +12,8 @@ import java.util.Map;
 import java.util.TreeMap;
 
 /**
-	A doctype is essentially list of element declarations for the validation engine.<p>
+	A doctype is essentially list of element declarations for the validation engine,
+	with any general entities that the Parser may expand.<p>
 	When passed to a Validator instance, elements within the markup are checked against the
 	declarations within the Doctype.<p>
 	The doctype is specified in markup and therefore has a doctype that can validate
@@ -21,22 +22,133 @@ import java.util.TreeMap;
 */
 public class Doctype {
 	private Map<String,ElementDecl> elementDecls;
+	private SymbolTable symbols;
+	private ElementDecl[] elements;
+	private long[][] inclusions, exclusions;
+	private EntityTable entities = new EntityTable();
 
 	/**
 		Constructor for a doctype containing the specified element declarations.
 	*/
 	public Doctype( Collection<ElementDecl> decls ) {
+		this( decls, null );
+	}
+
+	/**
+		Constructor for a doctype containing the specified element declarations,
+		and general entities mapping names to replacement text, which may be null.
+	*/
+	public Doctype( Collection<ElementDecl> decls, Map<String,String> entityDecls ) {
+		if( entityDecls != null ) {
+			for( Map.Entry<String,String> entityDecl : entityDecls.entrySet() ) {
+				entities.add( entityDecl.getKey(), entityDecl.getValue() );
+			}
+		}
 		elementDecls = new TreeMap<String,ElementDecl>();
 		for( ElementDecl decl : decls ) {
 			elementDecls.put( decl.getName(), decl );
 		}
+		/* Number the declarations, and convert inclusions and exclusions to bitsets of ids. */
+		symbols = new SymbolTable();
+		elements = elementDecls.values().toArray( new ElementDecl[ elementDecls.size() ] );
+		for( int id = 0; id < elements.length; id++ ) {
+			symbols.add( elements[ id ].getName() );
+		}
+		for( ElementDecl elementDecl : elements ) {
+			for( AttributeDecl attributeDecl : elementDecl.getAttributeDecls() ) {
+				symbols.add( attributeDecl.getName() );
+			}
+		}
+		inclusions = new long[ elements.length ][];
+		exclusions = new long[ elements.length ][];
+		for( int id = 0; id < elements.length; id++ ) {
+			inclusions[ id ] = toBitset( elements[ id ].getInclusions() );
+			exclusions[ id ] = toBitset( elements[ id ].getExclusions() );
+		}
 	}
 	
 	/**
 		@return The ElementDecl with the specified name, or null if none exists.
 	*/
 	public ElementDecl getElementDecl( String name ) {
-		return elementDecls.get( name.toLowerCase() );
+		int id = getElementId( name );
+		return id >= 0 ? elements[ id ] : null;
+	}
+
+	/**
+		@return The id of the ElementDecl with the specified name, or -1 if none exists.
+	*/
+	public int getElementId( String name ) {
+		int id = symbols.getId( name );
+		return id < elements.length ? id : -1;
+	}
+
+	/**
+		@return The table of canonical element and attribute names, in which
+		the id of each element name is the id of its ElementDecl.
+	*/
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	/**
+		@return The table of general entities.
+	*/
+	public EntityTable getEntityTable() {
+		return entities;
+	}
+
+	/**
+		@return The replacement text of the general entity with the specified name, or null if none exists.
+	*/
+	public String getEntity( String name ) {
+		int id = entities.getId( name );
+		return id >= 0 ? entities.getText( id ) : null;
+	}
+
+	/**
+		@return The ElementDecl with the specified id.
+	*/
+	public ElementDecl getElementDecl( int id ) {
+		return elements[ id ];
+	}
+
+	/**
+		@return The number of element declarations, ids being numbered from zero.
+	*/
+	public int getElementCount() {
+		return elements.length;
+	}
+
+	/**
+		@return The inclusions of the ElementDecl with the specified id as a bitset
+		of element ids, or null if there are none.
+	*/
+	public long[] getInclusions( int id ) {
+		return inclusions[ id ];
+	}
+
+	/**
+		@return The exclusions of the ElementDecl with the specified id as a bitset
+		of element ids, or null if there are none.
+	*/
+	public long[] getExclusions( int id ) {
+		return exclusions[ id ];
+	}
+
+	/* Convert a list of element names to a bitset of ids, ignoring undeclared names. */
+	private long[] toBitset( List<String> names ) {
+		long[] bitset = null;
+		for( String name : names ) {
+			int id = getElementId( name );
+			if( id >= 0 ) {
+				if( bitset == null ) {
+					bitset = new long[ ( elements.length + 63 ) / 64 ];
+				}
+				bitset[ id >> 6 ] |= 1L << id;
+			}
+		}
+		return bitset;
 	}
 
 	/** Write this Doctype in the format expected by parse(). */
@@ -44,14 +156,27 @@ public class Doctype {
 		writer.write( "<doctype>\n" );
 		for( ElementDecl elementDecl : elementDecls.values() )
 			elementDecl.write( writer );
+		for( int id = 0; id < entities.size(); id++ ) {
+			/* Quotes and ampersands are written as character references, which DoctypeParser expands. */
+			writer.write( "<entity name=" );
+			writer.write( entities.getName( id ) );
+			writer.write( " value=\"" );
+			writer.write( entities.getText( id ).replace( "&", "&#38;" ).replace( "\"", "&#34;" ) );
+			writer.write( "\">\n" );
+		}
 	}
 	
 	/** Parse the specified Doctype. */
 	public static Doctype parse( Reader reader ) throws IOException, ParseException {
 		DoctypeParser doctypeParser = new DoctypeParser();
 		Validator validator = new Validator( doctypeParser );
-		validator.doctype( doctype() );
-		new Parser().parse( reader, validator );
+		Doctype doctype = doctype();
+		validator.doctype( doctype );
+		Parser parser = new Parser();
+		parser.setDoctype( doctype );
+		/* Only the elements and attributes are required. */
+		parser.setEventMask( 0 );
+		parser.parse( reader, validator );
 		return doctypeParser.getDoctype();
 	}
 
@@ -62,7 +187,7 @@ public class Doctype {
 			new ElementDecl(
 				"doctype",
 				null,
-				new ContentModelCompiler().compile( "element*" ),
+				new ContentModelCompiler().compile( "(element|entity)*" ),
 				null,
 				null,
 				false,
@@ -79,7 +204,10 @@ public class Doctype {
 					new AttributeDecl( "exclude", null, null, false ),
 					new AttributeDecl( "type",
 						Arrays.asList( new String[] { "mixed", "empty", "omit" } ),
-						"mixed", false )
+						"mixed", false ),
+					new AttributeDecl( "text",
+						Arrays.asList( new String[] { "yes", "no" } ),
+						"yes", false )
 				} ),
 				new ContentModelCompiler().compile( "attribute*" ),
 				null,
@@ -106,6 +234,20 @@ public class Doctype {
 				true
 			)
 		);
+		elementDecls.add(
+			new ElementDecl(
+				"entity",
+				Arrays.asList( new AttributeDecl[] {
+					new AttributeDecl( "name", null, null, true ),
+					new AttributeDecl( "value", null, null, false )
+				} ),
+				new EmptyModel(),
+				null,
+				null,
+				true,
+				true
+			)
+		);
 		return new Doctype( elementDecls );
 	}
 }
@@ -4,7 +4,10 @@ package arser;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
 	An implementation of Handler that builds a Doctype instance from markup.<p>
@@ -16,6 +19,7 @@ public class DoctypeParser implements Handler {
 	private List<Attribute> elementParams;
 	private List<AttributeDecl> attributeDecls;
 	private List<ElementDecl> elementDecls;
+	private Map<String,String> entityDecls;
 
 	/** @return The Doctype that was the result of the markup passed to this instance.*/
 	public Doctype getDoctype() {
@@ -30,11 +34,12 @@ public class DoctypeParser implements Handler {
 	public void entity( String name ) {}
 	
 	public void open( String name, java.util.List<Attribute> atts ) throws ParseException {
-		name = name.toLowerCase();
+		name = name.toLowerCase( Locale.ROOT );
 		if( name.equals( "doctype" ) ) {
 			doctype = null;
 			attributeDecls = null;
 			elementDecls = new ArrayList<ElementDecl>();
+			entityDecls = new LinkedHashMap<String,String>();
 		}
 		if( name.equals( "element" ) ) {
 			elementParams = new ArrayList<Attribute>( atts );
@@ -43,15 +48,21 @@ public class DoctypeParser implements Handler {
 		if( name.equals( "attribute" ) ) {
 			attributeDecls.add( createAttributeDecl( atts ) );
 		}
+		if( name.equals( "entity" ) ) {
+			String entityName = Attribute.getValue( atts, "name" );
+			if( !entityDecls.containsKey( entityName ) ) {
+				entityDecls.put( entityName, EntityTable.expand( Attribute.getValue( atts, "value" ) ) );
+			}
+		}
 	}
 	
 	public void characters( String characters ) {}
 	public void characters( String param, String characters ) {}
 	
 	public void close( String name ) throws ParseException {
-		name = name.toLowerCase();
+		name = name.toLowerCase( Locale.ROOT );
 		if( name.equals( "doctype" ) ) {
-			doctype = new Doctype( elementDecls );
+			doctype = new Doctype( elementDecls, entityDecls );
 		}
 		if( name.equals( "element" ) ) {
 			elementDecls.add( createElementDecl( elementParams, attributeDecls ) );
@@ -69,17 +80,18 @@ public class DoctypeParser implements Handler {
 		}
 		List<String> include = split( Attribute.getValue( params, "include" ) );
 		List<String> exclude = split( Attribute.getValue( params, "exclude" ) );
-		String type = Attribute.getValue( params, "type" ).toLowerCase();
+		String type = Attribute.getValue( params, "type" ).toLowerCase( Locale.ROOT );
 		boolean empty = "empty".equals( type );
 		boolean omit = "omit".equals( type ) || empty;
-		return new ElementDecl( name, decls, model, include, exclude, empty, omit );
+		boolean elementOnly = "no".equals( Attribute.getValue( params, "text" ).toLowerCase( Locale.ROOT ) );
+		return new ElementDecl( name, decls, model, include, exclude, empty, omit, elementOnly );
 	}
 	
 	private AttributeDecl createAttributeDecl( List<Attribute> params ) throws ParseException {
 		String name = Attribute.getValue( params, "name" );
 		List<String> values = split( Attribute.getValue( params, "values" ) );
 		String defValue = Attribute.getValue( params, "default" );
-		boolean required = "required".equals( Attribute.getValue( params, "required" ).toLowerCase() );
+		boolean required = "required".equals( Attribute.getValue( params, "required" ).toLowerCase( Locale.ROOT ) );
 		return new AttributeDecl( name, values, defValue, required );
 	}
 	
@@ -19,15 +19,23 @@ public class Element implements NodeContainer {
 		as a child of the specified Node (either a Document or another Element).
 	*/
 	public Element( ElementDecl decl, Node parent ) {
+		attributes = new ArrayList<Attribute>();
+		children = new ArrayList<Node>();
+		reset( decl, parent );
+	}
+
+	/* Reinitialize this Element for reuse, with no attributes or children, keeping the lists. */
+	void reset( ElementDecl decl, Node parent ) {
 		elementDecl = decl;
 		parentNode = parent;
+		hasInclusions = hasExclusions = false;
 		if( parentNode instanceof Element ) {
 			Element parentElement = ( Element ) parentNode;
 			hasInclusions = elementDecl.hasInclusions() || parentElement.hasInclusions;
 			hasExclusions = elementDecl.hasExclusions() || parentElement.hasExclusions;
 		}
-		attributes = new ArrayList<Attribute>();
-		children = new ArrayList<Node>();
+		attributes.clear();
+		children.clear();
 	}
 
 	/**
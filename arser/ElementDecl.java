@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Locale;
 
 /**
 	Represents an element declaration used by the validation engine.<p>
@@ -20,7 +21,10 @@ import java.util.ListIterator;
 	If an element declaration is specified as empty, no close tag is expected for it.<p>
 	An element declaration may also specify if it is to permit the insertion of a
 	close tag for it if a child element is not permitted. This allows for the omission
-	of close tags in the markup in certain circumstances.
+	of close tags in the markup in certain circumstances.<p>
+	An element declared as element-only may not contain character data other than
+	whitespace, which is not significant and may be discarded. The Validator raises
+	a CHARACTER_DATA_NOT_PERMITTED error for any other character data within it.
 */
 public class ElementDecl {
 	private static final List<AttributeDecl> NO_DECLS = new ArrayList<AttributeDecl>();
@@ -30,13 +34,15 @@ public class ElementDecl {
 	private String name;
 	private List<AttributeDecl> attributeDecls;
 	private ContentModel contentModel;
+	private Automaton automaton;
 	private List<String> inclusions, exclusions;
-	private boolean empty, omit;
+	private boolean empty, omit, elementOnly;
 
 	/**
 		@param elementName The name of the element.
 		@param decls The list of declared attributes.
 		@param model The content model for child elements, or null.
+			A PositionModel may be specified to prevent the use of an Automaton.
 		@param include The list of elements that may be included as children.
 		@param exclude The list of elements that are excluded as children.
 		@param isEmpty Whether the tag does not have any content at all.
@@ -45,7 +51,24 @@ public class ElementDecl {
 	public ElementDecl( String elementName, List<AttributeDecl> decls,
 			ContentModel model, List<String> include, List<String> exclude,
 			boolean isEmpty, boolean mayOmit ) {
-		name = elementName.toLowerCase();
+		this( elementName, decls, model, include, exclude, isEmpty, mayOmit, false );
+	}
+
+	/**
+		@param elementName The name of the element.
+		@param decls The list of declared attributes.
+		@param model The content model for child elements, or null.
+			A PositionModel may be specified to prevent the use of an Automaton.
+		@param include The list of elements that may be included as children.
+		@param exclude The list of elements that are excluded as children.
+		@param isEmpty Whether the tag does not have any content at all.
+		@param mayOmit If true, the element permits the validator to close it automatically.
+		@param isElementOnly If true, the element contains only child elements and whitespace.
+	*/
+	public ElementDecl( String elementName, List<AttributeDecl> decls,
+			ContentModel model, List<String> include, List<String> exclude,
+			boolean isEmpty, boolean mayOmit, boolean isElementOnly ) {
+		name = elementName.toLowerCase( Locale.ROOT );
 		attributeDecls = NO_DECLS;
 		if( decls != null && decls.size() > 0 ) {
 			attributeDecls = new ArrayList<AttributeDecl>( decls );
@@ -54,22 +77,30 @@ public class ElementDecl {
 		if( model != null && !isEmpty ) {
 			contentModel = model.copy();
 		}
+		if( !( contentModel instanceof PositionModel ) ) {
+			automaton = Automaton.compile( contentModel );
+			if( automaton == null && Positions.analyze( contentModel ) != null ) {
+				/* Too many states, simulate the NFA instead. */
+				contentModel = new PositionModel( contentModel );
+			}
+		}
 		inclusions = NO_VALUES;
 		if( include != null && include.size() > 0 ) {
 			inclusions = new ArrayList<String>( include.size() );
 			for( String inclusion : include ) {
-				inclusions.add( inclusion.toLowerCase() );
+				inclusions.add( inclusion.toLowerCase( Locale.ROOT ) );
 			}
 		}
 		exclusions = NO_VALUES;
 		if( exclude != null && exclude.size() > 0 ) {
 			exclusions = new ArrayList<String>( exclude.size() );
 			for( String exclusion : exclude ) {
-				exclusions.add( exclusion.toLowerCase() );
+				exclusions.add( exclusion.toLowerCase( Locale.ROOT ) );
 			}
 		}
 		empty = isEmpty;
 		omit = mayOmit;
+		elementOnly = isElementOnly && !isEmpty;
 	}
 
 	/**
@@ -93,6 +124,14 @@ public class ElementDecl {
 		return contentModel.copy();
 	}
 	
+	/**
+		@return the shared Automaton for the content model, or null if the content
+		model is too large or is a PositionModel, in which case getContentModel() must be used.
+	*/
+	public Automaton getAutomaton() {
+		return automaton;
+	}
+
 	/**
 		@return the list of included elements.
 	*/
@@ -104,7 +143,7 @@ public class ElementDecl {
 		@return true if the specified name is in the list of inclusions.
 	*/
 	public boolean hasInclusion( String name ) {
-		return inclusions.contains( name.toLowerCase() );
+		return inclusions.contains( name.toLowerCase( Locale.ROOT ) );
 	}
 	
 	/** @return true if the element declaration has inclusions. */
@@ -123,7 +162,7 @@ public class ElementDecl {
 		@return true if the specified name is in the list of exclusions.
 	*/
 	public boolean hasExclusion( String name ) {
-		return exclusions.contains( name.toLowerCase() );
+		return exclusions.contains( name.toLowerCase( Locale.ROOT ) );
 	}
 
 	/** @return true if the element declaration has exclusions. */
@@ -145,8 +184,19 @@ public class ElementDecl {
 		return omit;
 	}
 
+	/**
+		@return true if the element is declared as containing only child elements and whitespace.
+	*/
+	public boolean isElementOnly() {
+		return elementOnly;
+	}
+
 	/** Validate an unminimize the specified Attribute list against this declaration. */
 	public void validate( List<Attribute> attributes ) throws ParseException {
+		if( attributes instanceof AttributeList ) {
+			validate( ( AttributeList ) attributes );
+			return;
+		}
 		for( AttributeDecl attributeDecl : attributeDecls ) {
 			Attribute attribute = null;
 			// Find the Attribute for the AttributeDecl.
@@ -189,6 +239,50 @@ public class ElementDecl {
 		}
 	}
 	
+	/* Validate and unminimize an AttributeList in place, without creating Attribute instances. */
+	private void validate( AttributeList attributes ) throws ParseException {
+		for( int declIdx = 0, declCount = attributeDecls.size(); declIdx < declCount; declIdx++ ) {
+			AttributeDecl attributeDecl = attributeDecls.get( declIdx );
+			String declName = attributeDecl.getName();
+			int found = -1;
+			for( int idx = 0, size = attributes.size(); idx < size; idx++ ) {
+				boolean matches;
+				if( attributes.getName( idx ) == null ) {
+					// Unminimize.
+					matches = attributeDecl.hasValue( attributes.getValueChars( idx ) );
+				} else {
+					matches = attributes.matches( idx, declName );
+				}
+				if( matches ) {
+					// Attribute found.
+					if( found >= 0 ) {
+						throw new ParseException( ParseException.Error.DUPLICATE_ATTRIBUTE, declName );
+					}
+					attributes.setAttributeDecl( idx, attributeDecl );
+					found = idx;
+				}
+			}
+			if( found < 0 ) {
+				// Add "implied" attribute.
+				if( attributeDecl.isRequired() ) {
+					throw new ParseException( ParseException.Error.REQUIRED_ATTRIBUTE_MISSING, declName );
+				}
+				attributes.addImplied( attributeDecl );
+				found = attributes.size() - 1;
+			}
+			if( attributeDecl.isMultiValued() && !attributeDecl.hasValue( attributes.getValueChars( found ) ) ) {
+				// Attribute value is not in the list of allowed values.
+				throw new ParseException( ParseException.Error.ATTRIBUTE_VALUE_NOT_PERMITTED,
+					attributes.get( found ).toString() );
+			}
+		}
+		for( int idx = 0, size = attributes.size(); idx < size; idx++ ) {
+			if( attributes.getAttributeDecl( idx ) == null ) {
+				throw new ParseException( ParseException.Error.UNDECLARED_ATTRIBUTE, attributes.get( idx ).toString() );
+			}
+		}
+	}
+
 	/** Write the markup that represents this element declaration to the specified Writer. */
 	public void write( java.io.Writer writer ) throws java.io.IOException {
 		writer.write( "<element name=" );
@@ -209,6 +303,8 @@ public class ElementDecl {
 			writer.write( " empty" );
 		else if( omit )
 			writer.write( " omit" );
+		if( elementOnly )
+			writer.write( " text=no" );
 		writer.write( ">\n" );
 		if( attributeDecls != null ) {
 			for( AttributeDecl attributeDecl : attributeDecls ) {
@@ -0,0 +1,183 @@
+package arser;
+
+import java.util.Arrays;
+
+/**
+	A table of general entities and their replacement text.<p>
+	Entity names are case-sensitive. As for the SymbolTable, each entity is
+	assigned an integer id in the order it was added, and may be looked up
+	directly from a character buffer, so that the Parser can expand a
+	reference without allocating.<p>
+	An EntityTable may be shared between threads once no more entities are added.
+*/
+public class EntityTable {
+	private String[] names = new String[ 16 ];
+	private char[][] texts = new char[ 16 ][];
+	private int[] hashes = new int[ 16 ];
+	private int[] slots = new int[ 32 ];
+	private int size;
+
+	/**
+		Add the specified entity if it is not already present. As in SGML,
+		the first declaration of an entity is the one that is used.
+		@return the id of the entity.
+	*/
+	public int add( String name, String text ) {
+		int id = getId( name );
+		if( id < 0 ) {
+			if( size >= names.length ) {
+				names = Arrays.copyOf( names, size * 2 );
+				texts = Arrays.copyOf( texts, size * 2 );
+				hashes = Arrays.copyOf( hashes, size * 2 );
+			}
+			id = size++;
+			names[ id ] = name;
+			texts[ id ] = text.toCharArray();
+			hashes[ id ] = name.hashCode();
+			if( size * 2 > slots.length ) {
+				rehash( slots.length * 2 );
+			} else {
+				insert( id );
+			}
+		}
+		return id;
+	}
+
+	/** @return the id of the specified entity, or -1 if it is not present. */
+	public int getId( String name ) {
+		int hash = name.hashCode();
+		int mask = slots.length - 1;
+		for( int slot = hash & mask; slots[ slot ] > 0; slot = ( slot + 1 ) & mask ) {
+			int id = slots[ slot ] - 1;
+			if( hashes[ id ] == hash && names[ id ].equals( name ) ) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/** @return the id of the entity named in the specified buffer, or -1 if it is not present. */
+	public int getId( char[] buf, int offset, int length ) {
+		int hash = 0;
+		for( int idx = offset, end = offset + length; idx < end; idx++ ) {
+			hash = 31 * hash + buf[ idx ];
+		}
+		int mask = slots.length - 1;
+		for( int slot = hash & mask; slots[ slot ] > 0; slot = ( slot + 1 ) & mask ) {
+			int id = slots[ slot ] - 1;
+			if( hashes[ id ] == hash && matches( names[ id ], buf, offset, length ) ) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/** @return the name of the entity with the specified id. */
+	public String getName( int id ) {
+		return names[ id ];
+	}
+
+	/** @return the replacement text of the entity with the specified id. */
+	public String getText( int id ) {
+		return new String( texts[ id ] );
+	}
+
+	/** @return the number of entities in the table. */
+	public int size() {
+		return size;
+	}
+
+	/* Return the replacement text of the entity with the specified id, which must not be modified. */
+	char[] getChars( int id ) {
+		return texts[ id ];
+	}
+
+	/**
+		Replace the numeric character references, such as "&#38;" or "&#x26;",
+		in the specified text with the characters they represent.
+	*/
+	public static String expand( String text ) {
+		int idx = text.indexOf( "&#" );
+		if( idx < 0 ) {
+			return text;
+		}
+		StringBuilder stringBuilder = new StringBuilder( text.length() );
+		int start = 0;
+		while( idx >= 0 ) {
+			int end = text.indexOf( ';', idx );
+			if( end < 0 ) {
+				break;
+			}
+			char[] chars = text.substring( idx + 2, end ).toCharArray();
+			int codePoint = codePoint( chars, 0, chars.length );
+			if( codePoint >= 0 ) {
+				stringBuilder.append( text, start, idx ).appendCodePoint( codePoint );
+				start = end + 1;
+			}
+			idx = text.indexOf( "&#", idx + 2 );
+		}
+		return stringBuilder.append( text, start, text.length() ).toString();
+	}
+
+	/*
+		Return the code point of the decimal number, or hexadecimal number following
+		an 'x', in the specified buffer, or -1 if it is not a valid character number.
+	*/
+	static int codePoint( char[] buf, int offset, int length ) {
+		int radix = 10;
+		if( length > 0 && ( buf[ offset ] == 'x' || buf[ offset ] == 'X' ) ) {
+			radix = 16;
+			offset++;
+			length--;
+		}
+		if( length <= 0 ) {
+			return -1;
+		}
+		int codePoint = 0;
+		for( int idx = offset, end = offset + length; idx < end; idx++ ) {
+			char chr = buf[ idx ];
+			int digit = -1;
+			if( chr >= '0' && chr <= '9' ) {
+				digit = chr - '0';
+			} else if( radix == 16 && ( chr | 32 ) >= 'a' && ( chr | 32 ) <= 'f' ) {
+				digit = ( chr | 32 ) - 'a' + 10;
+			}
+			if( digit < 0 ) {
+				return -1;
+			}
+			codePoint = codePoint * radix + digit;
+			if( codePoint > Character.MAX_CODE_POINT ) {
+				return -1;
+			}
+		}
+		return codePoint;
+	}
+
+	private void insert( int id ) {
+		int mask = slots.length - 1;
+		int slot = hashes[ id ] & mask;
+		while( slots[ slot ] > 0 ) {
+			slot = ( slot + 1 ) & mask;
+		}
+		slots[ slot ] = id + 1;
+	}
+
+	private void rehash( int length ) {
+		slots = new int[ length ];
+		for( int id = 0; id < size; id++ ) {
+			insert( id );
+		}
+	}
+
+	private static boolean matches( String name, char[] buf, int offset, int length ) {
+		if( name.length() != length ) {
+			return false;
+		}
+		for( int idx = 0; idx < length; idx++ ) {
+			if( name.charAt( idx ) != buf[ offset + idx ] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
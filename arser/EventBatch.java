@@ -0,0 +1,79 @@
+package arser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+	A sequence of markup events published by an EventPublisher, which is not
+	modified once published.<p>
+	The type of each event is one of the Cursor constants. The methods are
+	synchronized, as the events are recorded in shared buffers. The attributes
+	of each open event are created with the batch, so are not modified by
+	any method.
+*/
+public class EventBatch {
+	private EventQueue queue;
+	private List<List<Attribute>> attributes;
+
+	EventBatch( EventQueue events ) {
+		queue = events;
+		int size = events.size();
+		attributes = new ArrayList<List<Attribute>>( size );
+		for( int index = 0; index < size; index++ ) {
+			List<Attribute> list = null;
+			if( events.getType( index ) == EventQueue.OPEN ) {
+				/* Copying creates each Attribute of the list, which would otherwise be created on demand. */
+				list = Collections.unmodifiableList( new ArrayList<Attribute>( events.getAttributes( index ) ) );
+			}
+			attributes.add( list );
+		}
+	}
+
+	/** @return the number of events. */
+	public int size() {
+		return queue.size();
+	}
+
+	/** @return the type of the event at the specified index. */
+	public synchronized int getType( int index ) {
+		return queue.getType( checkIndex( index ) );
+	}
+
+	/** @return the element name of the open or close event at the specified index. */
+	public synchronized String getName( int index ) {
+		return queue.getName( checkIndex( index ) ).toString();
+	}
+
+	/** @return the text of the comment, processing-instruction, entity or character event at the specified index. */
+	public synchronized String getText( int index ) {
+		return queue.getText( checkIndex( index ) ).toString();
+	}
+
+	/** @return the attributes of the open event at the specified index, which may not be modified. */
+	public List<Attribute> getAttributes( int index ) {
+		return attributes.get( checkIndex( index ) );
+	}
+
+	/** @return the param of the marked section event at the specified index. */
+	public synchronized String getParam( int index ) {
+		return queue.getParam( checkIndex( index ) );
+	}
+
+	/** @return the declaration of the declaration event at the specified index. */
+	public synchronized Declaration getDeclaration( int index ) {
+		return queue.getDeclaration( checkIndex( index ) );
+	}
+
+	/** Pass the events onto the specified Handler. The doctype event is not included. */
+	public synchronized void replay( Handler handler ) throws ParseException {
+		queue.replay( new HandlerAdapter( handler ), 0, queue.size() );
+	}
+
+	private int checkIndex( int index ) {
+		if( index < 0 || index >= queue.size() ) {
+			throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + queue.size() );
+		}
+		return index;
+	}
+}
@@ -0,0 +1,171 @@
+package arser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+	A Flow.Publisher of the markup events of a document as validated by a Doctype,
+	in batches of many events.<p>
+	The document is parsed and validated on a background thread, which starts
+	when the first Subscriber subscribes. Each Subscriber has a buffer of batches,
+	and the parsing thread waits while a buffer is full, so that parsing proceeds
+	no faster than the slowest Subscriber requests batches. Parsing stops once
+	there are no Subscribers. The input is closed when parsing ends, and any
+	exception thrown while parsing is passed to the onError() method of each Subscriber.
+*/
+public class EventPublisher implements Flow.Publisher<EventBatch> {
+	private static final int BATCH_LEN = 256;
+
+	private Reader input;
+	private Doctype doctype;
+	private SubmissionPublisher<EventBatch> publisher;
+	private int batchLength = BATCH_LEN;
+	private Thread thread;
+	private Parser parser = new Parser();
+
+	/**
+		Publish the events of the specified input to Subscribers on the common pool,
+		each with a buffer of the default size.
+	*/
+	public EventPublisher( Reader input, Doctype doctype ) {
+		this( input, doctype, ForkJoinPool.commonPool(), Flow.defaultBufferSize() );
+	}
+
+	/**
+		@param input The document.
+		@param doctype The Doctype used to validate the document.
+		@param executor The Executor on which batches are passed to Subscribers.
+		@param bufferCapacity The maximum number of batches buffered for each Subscriber.
+	*/
+	public EventPublisher( Reader input, Doctype doctype, Executor executor, int bufferCapacity ) {
+		this.input = input;
+		this.doctype = doctype;
+		publisher = new SubmissionPublisher<EventBatch>( executor, bufferCapacity );
+	}
+
+	/** Set the number of events in each batch, except the last. The default is 256. */
+	public void setBatchLength( int length ) {
+		batchLength = Math.max( length, 1 );
+	}
+
+	public synchronized void subscribe( Flow.Subscriber<? super EventBatch> subscriber ) {
+		publisher.subscribe( subscriber );
+		if( thread == null ) {
+			thread = new Thread( new Runnable() {
+				public void run() {
+					publish();
+				}
+			}, "EventPublisher" );
+			thread.setDaemon( true );
+			thread.start();
+		}
+	}
+
+	/* Parse and validate the input, submitting the events in batches, then close the publisher. */
+	private void publish() {
+		Batcher batcher = new Batcher();
+		try {
+			try {
+				Validator validator = new Validator( new TokenAdapter( batcher ) );
+				validator.doctype( doctype );
+				parser.setDoctype( doctype );
+				parser.parse( input, validator );
+				batcher.submit();
+				publisher.close();
+			} finally {
+				input.close();
+			}
+		} catch( IOException ioException ) {
+			publisher.closeExceptionally( ioException );
+		} catch( ParseException parseException ) {
+			/* Pass on the events preceding the error. */
+			batcher.submit();
+			publisher.closeExceptionally( parseException );
+		} catch( RuntimeException runtimeException ) {
+			batcher.submit();
+			publisher.closeExceptionally( runtimeException );
+		} catch( Error error ) {
+			/* Subscribers must not wait for a thread that has died. */
+			publisher.closeExceptionally( error );
+			throw error;
+		}
+	}
+
+	/* A TokenHandler that records events and submits them once there are enough for a batch. */
+	private class Batcher implements TokenHandler {
+		private EventQueue queue = new EventQueue();
+
+		/* Submit the recorded events as a batch, waiting while the buffer of a Subscriber is full. */
+		public void submit() {
+			if( !queue.isEmpty() && publisher.hasSubscribers() ) {
+				publisher.submit( new EventBatch( queue ) );
+				queue = new EventQueue();
+			}
+		}
+
+		/* Submit a batch if it is full, and stop parsing if there are no Subscribers. */
+		private void recorded() throws ParseException {
+			if( queue.size() >= batchLength ) {
+				submit();
+				if( !publisher.hasSubscribers() ) {
+					parser.stop();
+				}
+			}
+		}
+
+		public void begin() throws ParseException {
+			queue.begin();
+			recorded();
+		}
+
+		public void comment( CharSequence comment ) throws ParseException {
+			queue.comment( comment );
+			recorded();
+		}
+
+		public void declaration( Declaration declaration ) throws ParseException {
+			queue.declaration( declaration );
+			recorded();
+		}
+
+		public void pi( CharSequence instruction ) throws ParseException {
+			queue.pi( instruction );
+			recorded();
+		}
+
+		public void entity( CharSequence name ) throws ParseException {
+			queue.entity( name );
+			recorded();
+		}
+
+		public void open( CharSequence name, List<Attribute> attributes ) throws ParseException {
+			queue.open( name, attributes );
+			recorded();
+		}
+
+		public void characters( CharSequence characters ) throws ParseException {
+			queue.characters( characters );
+			recorded();
+		}
+
+		public void characters( CharSequence param, CharSequence characters ) throws ParseException {
+			queue.characters( param, characters );
+			recorded();
+		}
+
+		public void close( CharSequence name ) throws ParseException {
+			queue.close( name );
+			recorded();
+		}
+
+		public void end() throws ParseException {
+			queue.end();
+			recorded();
+		}
+	}
+}
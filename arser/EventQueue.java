@@ -0,0 +1,244 @@
+package arser;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+	A TokenHandler that records events so that they may be passed onto
+	another TokenHandler later.<p>
+	The text of each event is copied into a single growable buffer, so that
+	recording does not allocate once the buffers are large enough, and the
+	events are replayed as views of that buffer. Names that are passed as
+	a String, such as the canonical names of a SymbolTable, are kept as is.
+*/
+class EventQueue implements TokenHandler {
+	static final int
+		BEGIN = 0, COMMENT = 1, DECLARATION = 2, PI = 3, ENTITY = 4, OPEN = 5,
+		CHARACTERS = 6, SECTION = 7, CLOSE = 8, END = 9;
+
+	private int[] types = new int[ 16 ], offsets = new int[ 16 ], lengths = new int[ 16 ];
+	private Object[] objects = new Object[ 16 ], names = new Object[ 16 ];
+	private AttributeList[] attributeLists = new AttributeList[ 16 ];
+	private char[] text = new char[ 1024 ];
+	private int count, textLen;
+	private CharBuffer textView = CharBuffer.wrap( text );
+	private CharBuffer nameView = CharBuffer.wrap( text );
+
+	/** @return the number of recorded events. */
+	public int size() {
+		return count;
+	}
+
+	/** @return true if no events are recorded. */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/** @return the type of the event at the specified index. */
+	public int getType( int index ) {
+		return types[ index ];
+	}
+
+	/** @return the text of the event at the specified index, which is valid until the next call. */
+	public CharSequence getText( int index ) {
+		return text( index );
+	}
+
+	/** @return the element name of the open or close event at the specified index. */
+	public CharSequence getName( int index ) {
+		return name( index );
+	}
+
+	/** @return the attributes of the open event at the specified index. */
+	@SuppressWarnings( "unchecked" )
+	public List<Attribute> getAttributes( int index ) {
+		return ( List<Attribute> ) objects[ index ];
+	}
+
+	/** @return the declaration of the declaration event at the specified index. */
+	public Declaration getDeclaration( int index ) {
+		return ( Declaration ) objects[ index ];
+	}
+
+	/** @return the param of the marked section event at the specified index. */
+	public String getParam( int index ) {
+		return ( String ) objects[ index ];
+	}
+
+	/** Discard all recorded events. */
+	public void clear() {
+		truncate( 0 );
+	}
+
+	/** Discard the events recorded after the specified number of events. */
+	public void truncate( int size ) {
+		if( size < count ) {
+			Arrays.fill( objects, size, count, null );
+			Arrays.fill( names, size, count, null );
+			textLen = offsets[ size ];
+			count = size;
+		}
+	}
+
+	/** Pass the recorded events onto the specified handler and discard them. */
+	public void replay( TokenHandler handler ) throws ParseException {
+		try {
+			replay( handler, 0, count );
+		} finally {
+			clear();
+		}
+	}
+
+	/** Pass the recorded events from the specified index up to the end index onto the specified handler. */
+	public void replay( TokenHandler handler, int start, int end ) throws ParseException {
+		for( int index = start; index < end; index++ ) {
+			dispatch( handler, index );
+		}
+	}
+
+	/** Pass the event at the specified index onto the specified handler. */
+	@SuppressWarnings( "unchecked" )
+	public void dispatch( TokenHandler handler, int index ) throws ParseException {
+		switch( types[ index ] ) {
+			case BEGIN:
+				handler.begin();
+				break;
+			case COMMENT:
+				handler.comment( text( index ) );
+				break;
+			case DECLARATION:
+				handler.declaration( ( Declaration ) objects[ index ] );
+				break;
+			case PI:
+				handler.pi( text( index ) );
+				break;
+			case ENTITY:
+				handler.entity( text( index ) );
+				break;
+			case OPEN:
+				handler.open( name( index ), ( List<Attribute> ) objects[ index ] );
+				break;
+			case CHARACTERS:
+				handler.characters( text( index ) );
+				break;
+			case SECTION:
+				handler.characters( ( String ) objects[ index ], text( index ) );
+				break;
+			case CLOSE:
+				handler.close( name( index ) );
+				break;
+			case END:
+				handler.end();
+				break;
+		}
+	}
+
+	public void begin() throws ParseException {
+		add( BEGIN, null, null, null );
+	}
+
+	public void comment( CharSequence comment ) throws ParseException {
+		add( COMMENT, null, null, comment );
+	}
+
+	public void declaration( Declaration declaration ) throws ParseException {
+		add( DECLARATION, declaration, null, null );
+	}
+
+	public void pi( CharSequence instruction ) throws ParseException {
+		add( PI, null, null, instruction );
+	}
+
+	public void entity( CharSequence name ) throws ParseException {
+		add( ENTITY, null, null, name );
+	}
+
+	public void open( CharSequence name, List<Attribute> attributes ) throws ParseException {
+		/* The attributes may be reused by the caller, so are copied into a list kept for this index. */
+		if( count >= attributeLists.length ) {
+			attributeLists = Arrays.copyOf( attributeLists, count * 2 );
+		}
+		AttributeList list = attributeLists[ count ];
+		if( list == null ) {
+			list = attributeLists[ count ] = new AttributeList();
+		}
+		list.copy( attributes );
+		add( OPEN, list, name, null );
+	}
+
+	public void characters( CharSequence characters ) throws ParseException {
+		add( CHARACTERS, null, null, characters );
+	}
+
+	public void characters( CharSequence param, CharSequence characters ) throws ParseException {
+		add( SECTION, param.toString(), null, characters );
+	}
+
+	public void close( CharSequence name ) throws ParseException {
+		add( CLOSE, null, name, null );
+	}
+
+	public void end() throws ParseException {
+		add( END, null, null, null );
+	}
+
+	private void add( int type, Object object, CharSequence name, CharSequence chars ) {
+		if( count >= types.length ) {
+			int length = count * 2;
+			types = Arrays.copyOf( types, length );
+			offsets = Arrays.copyOf( offsets, length );
+			lengths = Arrays.copyOf( lengths, length );
+			objects = Arrays.copyOf( objects, length );
+			names = Arrays.copyOf( names, length );
+		}
+		types[ count ] = type;
+		objects[ count ] = object;
+		offsets[ count ] = textLen;
+		lengths[ count ] = 0;
+		if( name instanceof String ) {
+			names[ count ] = name;
+		} else if( name != null ) {
+			append( name );
+		}
+		if( chars != null ) {
+			append( chars );
+		}
+		count++;
+	}
+
+	/* Copy the specified characters onto the end of the text buffer as the text of the current event. */
+	private void append( CharSequence chars ) {
+		int length = chars.length();
+		if( textLen + length > text.length ) {
+			text = Arrays.copyOf( text, Math.max( text.length * 2, textLen + length ) );
+			textView = CharBuffer.wrap( text );
+			nameView = CharBuffer.wrap( text );
+		}
+		if( chars instanceof CharBuffer && ( ( CharBuffer ) chars ).hasArray() ) {
+			CharBuffer buffer = ( CharBuffer ) chars;
+			System.arraycopy( buffer.array(), buffer.arrayOffset() + buffer.position(), text, textLen, length );
+		} else {
+			for( int idx = 0; idx < length; idx++ ) {
+				text[ textLen + idx ] = chars.charAt( idx );
+			}
+		}
+		textLen += length;
+		lengths[ count ] = length;
+	}
+
+	private CharSequence text( int index ) {
+		textView.limit( offsets[ index ] + lengths[ index ] );
+		textView.position( offsets[ index ] );
+		return textView;
+	}
+
+	private CharSequence name( int index ) {
+		if( names[ index ] != null ) {
+			return ( CharSequence ) names[ index ];
+		}
+		nameView.limit( offsets[ index ] + lengths[ index ] );
+		nameView.position( offsets[ index ] );
+		return nameView;
+	}
+}
@@ -0,0 +1,74 @@
+package arser;
+
+import java.util.List;
+
+/**
+	An implementation of TokenHandler that converts each event to Strings
+	and passes it onto a Handler.
+*/
+public class HandlerAdapter implements TokenHandler {
+	private Handler handler;
+
+	/**
+		Constructor.
+		@param h The handler that will receive the events.
+	*/
+	public HandlerAdapter( Handler h ) {
+		handler = h;
+	}
+
+	/** @return the Handler that receives the events. */
+	public Handler getHandler() {
+		return handler;
+	}
+
+	/** @see TokenHandler */
+	public void begin() throws ParseException {
+		handler.begin();
+	}
+
+	/** @see TokenHandler */
+	public void comment( CharSequence comment ) throws ParseException {
+		handler.comment( comment.toString() );
+	}
+
+	/** @see TokenHandler */
+	public void declaration( Declaration declaration ) throws ParseException {
+		handler.declaration( declaration );
+	}
+
+	/** @see TokenHandler */
+	public void pi( CharSequence instruction ) throws ParseException {
+		handler.pi( instruction.toString() );
+	}
+
+	/** @see TokenHandler */
+	public void entity( CharSequence name ) throws ParseException {
+		handler.entity( name.toString() );
+	}
+
+	/** @see TokenHandler */
+	public void open( CharSequence name, List<Attribute> attributes ) throws ParseException {
+		handler.open( name.toString(), AttributeList.forHandler( handler, attributes ) );
+	}
+
+	/** @see TokenHandler */
+	public void characters( CharSequence characters ) throws ParseException {
+		handler.characters( characters.toString() );
+	}
+
+	/** @see TokenHandler */
+	public void characters( CharSequence param, CharSequence characters ) throws ParseException {
+		handler.characters( param.toString(), characters.toString() );
+	}
+
+	/** @see TokenHandler */
+	public void close( CharSequence name ) throws ParseException {
+		handler.close( name.toString() );
+	}
+
+	/** @see TokenHandler */
+	public void end() throws ParseException {
+		handler.end();
+	}
+}
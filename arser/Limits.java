@@ -0,0 +1,74 @@
+package arser;
+
+/**
+	Limits on the resources used to parse, validate and load a document, for
+	documents from untrusted sources. Each limit is checked by a counter as the
+	document is processed, and exceeding it raises a ParseException with the
+	corresponding error. By default there are no limits.<p>
+	The Parser checks the document length, the attributes of each tag, the length
+	of each declaration subset and the number of entity expansions. The Validator
+	and Loader check the nesting depth and the number of events. The limits are
+	read when the Limits are passed to setLimits().
+*/
+public class Limits {
+	private int maxDepth = Integer.MAX_VALUE;
+	private int maxAttributes = Integer.MAX_VALUE;
+	private int maxSubsetLength = Integer.MAX_VALUE;
+	private int maxEntityExpansions = Integer.MAX_VALUE;
+	private long maxEvents = Long.MAX_VALUE;
+	private long maxDocumentLength = Long.MAX_VALUE;
+
+	/** @return the maximum number of open elements, beyond which NESTING_TOO_DEEP is raised. */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public void setMaxDepth( int depth ) {
+		maxDepth = depth;
+	}
+
+	/** @return the maximum number of attributes of a tag, beyond which TOO_MANY_ATTRIBUTES is raised. */
+	public int getMaxAttributes() {
+		return maxAttributes;
+	}
+
+	public void setMaxAttributes( int attributes ) {
+		maxAttributes = attributes;
+	}
+
+	/** @return the maximum length in characters of a declaration subset, beyond which SUBSET_TOO_LONG is raised. */
+	public int getMaxSubsetLength() {
+		return maxSubsetLength;
+	}
+
+	public void setMaxSubsetLength( int length ) {
+		maxSubsetLength = length;
+	}
+
+	/** @return the maximum number of references expanded into the text of a declared entity, beyond which TOO_MANY_ENTITY_EXPANSIONS is raised. */
+	public int getMaxEntityExpansions() {
+		return maxEntityExpansions;
+	}
+
+	public void setMaxEntityExpansions( int expansions ) {
+		maxEntityExpansions = expansions;
+	}
+
+	/** @return the maximum number of events in a document, beyond which TOO_MANY_EVENTS is raised. */
+	public long getMaxEvents() {
+		return maxEvents;
+	}
+
+	public void setMaxEvents( long events ) {
+		maxEvents = events;
+	}
+
+	/** @return the maximum length of the input in characters, beyond which DOCUMENT_TOO_LONG is raised. */
+	public long getMaxDocumentLength() {
+		return maxDocumentLength;
+	}
+
+	public void setMaxDocumentLength( long length ) {
+		maxDocumentLength = length;
+	}
+}
@@ -12,6 +12,8 @@ import java.util.List;
 public class Loader implements Handler {
 	private Document document;
 	private Deque<NodeContainer> stack;
+	private int maxDepth = Integer.MAX_VALUE;
+	private long maxEvents = Long.MAX_VALUE, events;
 
 	/**
 		Instantiate a Loader with an empty Document.
@@ -29,6 +31,12 @@ public class Loader implements Handler {
 		return document;
 	}
 
+	/** Set the limits on the nesting depth and the number of events loaded. */
+	public void setLimits( Limits limits ) {
+		maxDepth = limits.getMaxDepth();
+		maxEvents = limits.getMaxEvents();
+	}
+
 	/** @see Handler. */
 	public void begin() throws ParseException {
 	}
@@ -37,29 +45,34 @@ public class Loader implements Handler {
 	public void doctype( Doctype doctype ) throws ParseException {
 		document.setDoctype( doctype );
 	}
-	
+	
 	/** @see Handler. */
 	public void comment( String comment ) throws ParseException {
+		count();
 		stack.peek().getChildren().add( new Comment( comment ) );
 	}
 	
 	/** @see Handler. */
 	public void declaration( Declaration declaration ) throws ParseException {
+		count();
 		stack.peek().getChildren().add( declaration );
 	}
 	
 	/** @see Handler. */
 	public void pi( String instruction ) throws ParseException {
+		count();
 		stack.peek().getChildren().add( new ProcessingInstruction( instruction ) );
 	}
 	
 	/** @see Handler. */
 	public void entity( String name ) throws ParseException {
+		count();
 		stack.peek().getChildren().add( new Entity( name ) );
 	}
 	
 	/** @see Handler. */
 	public void open( String name, List<Attribute> attributes ) throws ParseException {
+		count();
 		Doctype doctype = document.getDoctype();
 		if( doctype == null ) {
 			throw new ParseException( ParseException.Error.DOCTYPE_NOT_SET, name );
@@ -72,17 +85,22 @@ public class Loader implements Handler {
 		element.getAttributes().addAll( attributes );
 		stack.peek().getChildren().add( element );
 		if( !decl.isEmpty() ) {
+			if( stack.size() > maxDepth ) {
+				throw new ParseException( ParseException.Error.NESTING_TOO_DEEP, name );
+			}
 			stack.push( element );
 		}
 	}
 	
 	/** @see Handler. */
 	public void characters( String characters ) throws ParseException {
+		count();
 		stack.peek().getChildren().add( new Characters( characters ) );
 	}
 	
 	/** @see Handler. */
 	public void characters( String param, String characters ) throws ParseException {
+		count();
 		stack.peek().getChildren().add( new Characters( param, characters ) );
 	}
 	
@@ -106,4 +124,11 @@ public class Loader implements Handler {
 			throw new ParseException( ParseException.Error.CLOSE_ELEMENT_MISSING, ( ( Element ) stack.peek() ).getName() );
 		}
 	}
+
+	/* Count an event loaded, failing if there are too many. */
+	private void count() throws ParseException {
+		if( ++events > maxEvents ) {
+			throw new ParseException( ParseException.Error.TOO_MANY_EVENTS );
+		}
+	}
 }
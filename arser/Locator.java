@@ -0,0 +1,25 @@
+package arser;
+
+/**
+	The position of a parser in its input, after the last character it has read.<p>
+	During a markup event this is just after the construct that generated it,
+	or in push mode, after the last complete construct. The line and column
+	are computed from the offset when requested, so the parser does not count
+	them as it reads.
+*/
+public interface Locator {
+	/** @return the number of characters read. */
+	public long getOffset();
+
+	/**
+		@return the number of bytes read, which may be used to seek in the input,
+		or -1 if the input is not decoded directly from bytes by a ByteReader.
+	*/
+	public long getByteOffset();
+
+	/** @return one more than the number of newlines read. */
+	public int getLineNumber();
+
+	/** @return the number of characters read since the last newline. */
+	public int getColumnNumber();
+}
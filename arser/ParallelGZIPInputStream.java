@@ -0,0 +1,247 @@
+package arser;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+	An InputStream that decompresses gzip data, which may consist of several members.<p>
+	Members that record their compressed length in a "BC" extra field, as written
+	by block-compressing tools such as bgzip, are read ahead and inflated
+	concurrently, and passed on in order. From the first member without this
+	field, the rest of the stream is decompressed sequentially by a GZIPInputStream.
+*/
+public class ParallelGZIPInputStream extends InputStream {
+	private static final int HEADER_LEN = 10, TRAILER_LEN = 8;
+	/* The greatest uncompressed length of a block-compressed member. */
+	private static final int MAX_BLOCK_LEN = 65536;
+	private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+	private InputStream input;
+	private ForkJoinPool pool;
+	private int readAhead;
+	private ArrayDeque<Future<byte[]>> blocks = new ArrayDeque<Future<byte[]>>();
+	private InputStream tail;
+	private byte[] block = new byte[ 0 ];
+	private int blockIdx;
+	private boolean first = true, finished;
+
+	/**
+		@param inputStream The gzip data, which is inflated on the common pool.
+	*/
+	public ParallelGZIPInputStream( InputStream inputStream ) {
+		this( inputStream, ForkJoinPool.commonPool() );
+	}
+
+	/**
+		@param inputStream The gzip data.
+		@param forkJoinPool The pool on which to inflate the members.
+	*/
+	public ParallelGZIPInputStream( InputStream inputStream, ForkJoinPool forkJoinPool ) {
+		input = inputStream;
+		pool = forkJoinPool;
+		readAhead = Math.max( forkJoinPool.getParallelism(), 1 ) * 4;
+	}
+
+	/** @return true if the specified file begins with the gzip magic number. */
+	public static boolean isGzip( File file ) throws IOException {
+		FileInputStream inputStream = new FileInputStream( file );
+		try {
+			return inputStream.read() == 0x1f && inputStream.read() == 0x8b;
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	public int read() throws IOException {
+		byte[] buf = new byte[ 1 ];
+		return read( buf, 0, 1 ) > 0 ? buf[ 0 ] & 0xFF : -1;
+	}
+
+	public int read( byte[] buf, int off, int len ) throws IOException {
+		if( len <= 0 ) {
+			return 0;
+		}
+		while( blockIdx >= block.length ) {
+			if( blocks.size() < readAhead ) {
+				readBlocks();
+			}
+			if( blocks.isEmpty() ) {
+				return tail != null ? tail.read( buf, off, len ) : -1;
+			}
+			block = take( blocks.removeFirst() );
+			blockIdx = 0;
+		}
+		int count = Math.min( len, block.length - blockIdx );
+		System.arraycopy( block, blockIdx, buf, off, count );
+		blockIdx += count;
+		return count;
+	}
+
+	public void close() throws IOException {
+		for( Future<byte[]> future : blocks ) {
+			future.cancel( true );
+		}
+		blocks.clear();
+		finished = true;
+		if( tail != null ) {
+			tail.close();
+		}
+		input.close();
+	}
+
+	/* Read members and submit them to the pool until enough are queued, or one without a length is found. */
+	private void readBlocks() throws IOException {
+		while( !finished && blocks.size() < readAhead ) {
+			byte[] header = new byte[ HEADER_LEN ];
+			int count = readFully( header, 0, HEADER_LEN );
+			if( count == 0 && !first ) {
+				finished = true;
+				break;
+			}
+			if( count < HEADER_LEN || ( header[ 0 ] & 0xFF ) != 0x1f || ( header[ 1 ] & 0xFF ) != 0x8b || header[ 2 ] != 8 ) {
+				if( first ) {
+					throw new ZipException( "Not in GZIP format." );
+				}
+				/* Trailing garbage is ignored, as by GZIPInputStream. */
+				finished = true;
+				break;
+			}
+			first = false;
+			int flags = header[ 3 ] & 0xFF;
+			int blockLen = -1;
+			byte[] extra = new byte[ 0 ];
+			if( ( flags & FEXTRA ) != 0 ) {
+				byte[] extraLen = new byte[ 2 ];
+				if( readFully( extraLen, 0, 2 ) < 2 ) {
+					throw new EOFException( "Unexpected end of ZLIB input stream" );
+				}
+				extra = new byte[ ( extraLen[ 0 ] & 0xFF ) | ( extraLen[ 1 ] & 0xFF ) << 8 ];
+				if( readFully( extra, 0, extra.length ) < extra.length ) {
+					throw new EOFException( "Unexpected end of ZLIB input stream" );
+				}
+				blockLen = blockLength( extra );
+			}
+			if( blockLen < 0 || ( flags & ( FHCRC | FNAME | FCOMMENT ) ) != 0 ) {
+				/* Decompress the rest of the stream sequentially, from this header. */
+				byte[] read = new byte[ HEADER_LEN + ( ( flags & FEXTRA ) != 0 ? 2 + extra.length : 0 ) ];
+				System.arraycopy( header, 0, read, 0, HEADER_LEN );
+				if( ( flags & FEXTRA ) != 0 ) {
+					read[ HEADER_LEN ] = ( byte ) extra.length;
+					read[ HEADER_LEN + 1 ] = ( byte ) ( extra.length >> 8 );
+					System.arraycopy( extra, 0, read, HEADER_LEN + 2, extra.length );
+				}
+				tail = new GZIPInputStream( new SequenceInputStream( new ByteArrayInputStream( read ), input ) );
+				finished = true;
+				break;
+			}
+			/* The lengths are checked before anything is allocated from them. */
+			if( blockLen < HEADER_LEN + 2 + extra.length + TRAILER_LEN ) {
+				throw new ZipException( "Invalid BGZF block size" );
+			}
+			final byte[] data = new byte[ blockLen - HEADER_LEN - 2 - extra.length ];
+			if( readFully( data, 0, data.length ) < data.length ) {
+				throw new EOFException( "Unexpected end of ZLIB input stream" );
+			}
+			int size = readInt( data, data.length - 4 );
+			if( size < 0 || size > MAX_BLOCK_LEN ) {
+				throw new ZipException( "Invalid BGZF uncompressed size" );
+			}
+			blocks.addLast( pool.submit( new Callable<byte[]>() {
+				public byte[] call() throws IOException {
+					return inflate( data );
+				}
+			} ) );
+		}
+	}
+
+	/* Return the total length of the member from the "BC" subfield of the specified extra field, or -1 if none. */
+	private static int blockLength( byte[] extra ) {
+		int idx = 0;
+		while( idx + 4 <= extra.length ) {
+			int length = ( extra[ idx + 2 ] & 0xFF ) | ( extra[ idx + 3 ] & 0xFF ) << 8;
+			if( extra[ idx ] == 'B' && extra[ idx + 1 ] == 'C' && length == 2 && idx + 6 <= extra.length ) {
+				return ( ( extra[ idx + 4 ] & 0xFF ) | ( extra[ idx + 5 ] & 0xFF ) << 8 ) + 1;
+			}
+			idx += 4 + length;
+		}
+		return -1;
+	}
+
+	/* Inflate the compressed data and trailer of a member, and check the CRC and length. */
+	private static byte[] inflate( byte[] data ) throws IOException {
+		int dataLen = data.length - TRAILER_LEN;
+		long crc = readInt( data, dataLen ) & 0xFFFFFFFFL;
+		byte[] output = new byte[ readInt( data, dataLen + 4 ) ];
+		Inflater inflater = new Inflater( true );
+		try {
+			inflater.setInput( data, 0, dataLen );
+			int count = 0;
+			while( count < output.length && !inflater.finished() ) {
+				int inflated = inflater.inflate( output, count, output.length - count );
+				if( inflated == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+					break;
+				}
+				count += inflated;
+			}
+			if( count < output.length ) {
+				throw new ZipException( "Corrupt GZIP trailer" );
+			}
+		} catch( DataFormatException dataFormatException ) {
+			throw new ZipException( dataFormatException.getMessage() );
+		} finally {
+			inflater.end();
+		}
+		CRC32 crc32 = new CRC32();
+		crc32.update( output, 0, output.length );
+		if( crc32.getValue() != crc ) {
+			throw new ZipException( "Corrupt GZIP trailer" );
+		}
+		return output;
+	}
+
+	private static int readInt( byte[] buf, int idx ) {
+		return ( buf[ idx ] & 0xFF ) | ( buf[ idx + 1 ] & 0xFF ) << 8 | ( buf[ idx + 2 ] & 0xFF ) << 16 | ( buf[ idx + 3 ] & 0xFF ) << 24;
+	}
+
+	private byte[] take( Future<byte[]> future ) throws IOException {
+		try {
+			return future.get();
+		} catch( InterruptedException interruptedException ) {
+			throw new InterruptedIOException();
+		} catch( ExecutionException executionException ) {
+			if( executionException.getCause() instanceof IOException ) {
+				throw ( IOException ) executionException.getCause();
+			}
+			throw new IOException( executionException.getCause() );
+		}
+	}
+
+	/* Read up to the specified length, returning less only at the end of the input. */
+	private int readFully( byte[] buf, int off, int len ) throws IOException {
+		int count = 0;
+		while( count < len ) {
+			int read = input.read( buf, off + count, len - count );
+			if( read < 0 ) {
+				break;
+			}
+			count += read;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,370 @@
+package arser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+	Parses and validates a large document on several threads, for documents
+	consisting of many records, such as a root element containing a long
+	sequence of elements with the same name.<p>
+	The input is split into chunks before the open tags of the records, found
+	by a quick scan that skips comments, marked sections and other markup.
+	The first chunk is parsed and validated as usual, and the element context
+	at its end is used as the starting context for parsing and validating the
+	remaining chunks concurrently, the events of each being recorded. The
+	recorded events are then passed onto the handler in order.<p>
+	A chunk is only accepted if the previous chunk ended outside any markup
+	in the same element context, otherwise the rest of the document is parsed
+	sequentially, so the events, and any ParseException and its line number,
+	are the same as for a Validator fed by Parser.parse(). Exceptions thrown
+	by the handler itself do not have a line number or location.<p>
+	The whole document is held in memory as a single char array, so it is
+	limited to about 2G characters, and a file is decoded in full before any
+	events are passed on. Larger documents must be parsed by a Parser, or read
+	by a RecordIterator, which hold only the current input in memory.
+*/
+public class ParallelParser {
+	private static final int CHUNK_LEN = 1 << 20;
+	/* The greatest length of an array. */
+	private static final int MAX_INPUT_LEN = Integer.MAX_VALUE - 8;
+
+	private Doctype doctype;
+	private char[] recordName;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private int chunkLength = CHUNK_LEN;
+
+	/**
+		@param doctype The Doctype used to validate the document.
+		@param recordName The name of the elements before which the document may be split.
+	*/
+	public ParallelParser( Doctype doctype, String recordName ) {
+		this.doctype = doctype;
+		this.recordName = recordName.toLowerCase( Locale.ROOT ).toCharArray();
+	}
+
+	/** Set the pool used to parse the chunks. The default is the common pool. */
+	public void setPool( ForkJoinPool forkJoinPool ) {
+		pool = forkJoinPool;
+	}
+
+	/** Set the minimum length of each chunk in characters. The default is 1M characters. */
+	public void setChunkLength( int length ) {
+		chunkLength = Math.max( length, 1 );
+	}
+
+	/**
+		Parse and validate the specified file and feed the resulting markup events
+		to the Handler. The whole file is decoded into memory first, so it must be smaller
+		than 2G characters, otherwise a DOCUMENT_TOO_LONG error is raised.
+		Gzip-compressed files are decompressed as they are read.
+	*/
+	public void parse( File file, String encoding, Handler handler ) throws IOException, ParseException {
+		InputStream inputStream = new FileInputStream( file );
+		if( ParallelGZIPInputStream.isGzip( file ) ) {
+			inputStream = new ParallelGZIPInputStream( new BufferedInputStream( inputStream ), pool );
+		}
+		try {
+			Reader reader = ByteReader.isSupported( encoding ) ? new ByteReader( inputStream, encoding ) : new InputStreamReader( inputStream, encoding );
+			char[] input = new char[ ( int ) Math.min( file.length() + 1, MAX_INPUT_LEN ) ];
+			int length = 0;
+			while( true ) {
+				if( length >= input.length ) {
+					if( input.length >= MAX_INPUT_LEN ) {
+						throw new ParseException( ParseException.Error.DOCUMENT_TOO_LONG );
+					}
+					input = Arrays.copyOf( input, ( int ) Math.min( input.length * 2L, MAX_INPUT_LEN ) );
+				}
+				int count = reader.read( input, length, input.length - length );
+				if( count < 0 ) {
+					break;
+				}
+				length += count;
+			}
+			parse( input, 0, length, handler );
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+		Parse and validate the specified characters and feed the resulting markup events to the Handler.
+		As for the Validator, the doctype event is passed to the handler first.
+	*/
+	public void parse( char[] input, int offset, int length, Handler handler ) throws ParseException {
+		int end = offset + length;
+		int[][] splits = split( input, offset, end );
+		int[] positions = splits[ 0 ], lines = splits[ 1 ];
+		/* Parse the first chunk directly. */
+		Chunk first = new Chunk( input, offset, offset, positions.length > 0 ? positions[ 0 ] : end, 1, positions.length == 0 );
+		first.adapter.setTokenHandler( new HandlerAdapter( handler ) );
+		handler.doctype( doctype );
+		first.parse( null );
+		if( first.error != null ) {
+			throw first.error;
+		}
+		Chunk current = first;
+		Context context = null;
+		if( positions.length > 0 && first.parser.isIdle() ) {
+			current.parser.flush();
+			context = current.validator.getContext().copy();
+		}
+		int chunkIdx = 0;
+		int batchLength = Math.max( pool.getParallelism(), 1 ) * 2;
+		while( context != null && chunkIdx < positions.length ) {
+			/* Parse a batch of chunks concurrently from the same context. */
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+			for( int idx = chunkIdx; idx < positions.length && idx < chunkIdx + batchLength; idx++ ) {
+				boolean last = idx + 1 >= positions.length;
+				final Chunk chunk = new Chunk( input, offset, positions[ idx ], last ? end : positions[ idx + 1 ], lines[ idx ], last );
+				final Context start = context.copy();
+				chunks.add( chunk );
+				futures.add( pool.submit( new Callable<Chunk>() {
+					public Chunk call() {
+						chunk.parse( start );
+						return chunk;
+					}
+				} ) );
+			}
+			int consumed = 0;
+			try {
+				for( Future<Chunk> future : futures ) {
+					Chunk chunk;
+					try {
+						chunk = future.get();
+					} catch( InterruptedException e ) {
+						throw new ParseException( e.toString() );
+					} catch( ExecutionException e ) {
+						if( e.getCause() instanceof RuntimeException ) {
+							throw ( RuntimeException ) e.getCause();
+						}
+						throw new ParseException( e.getCause().toString() );
+					} finally {
+						consumed++;
+					}
+					/* The previous chunk ended in the starting context, so the events are valid. */
+					chunk.queue.replay( new HandlerAdapter( handler ) );
+					chunkIdx++;
+					if( chunk.error != null ) {
+						throw chunk.error;
+					}
+					current = chunk;
+					if( chunk.last || !chunk.parser.isIdle() || !chunk.validator.getContext().isEquivalent( context ) ) {
+						context = null;
+						break;
+					}
+					chunk.parser.flush();
+					chunk.queue.replay( new HandlerAdapter( handler ) );
+				}
+			} finally {
+				/* Stop the chunks that will not be used, as cancel() does not interrupt a running task. */
+				for( int idx = consumed; idx < chunks.size(); idx++ ) {
+					chunks.get( idx ).parser.stop();
+					futures.get( idx ).cancel( true );
+				}
+			}
+		}
+		if( !current.last ) {
+			/* Parse the rest of the document sequentially. */
+			current.adapter.setTokenHandler( new HandlerAdapter( handler ) );
+			int start = chunkIdx < positions.length ? positions[ chunkIdx ] : end;
+			current.parser.push( input, start, end - start, true );
+		}
+	}
+
+	/*
+		Find the positions of the open tags of records at least chunkLength apart,
+		excluding the first record, and the line number of each.
+	*/
+	private int[][] split( char[] input, int offset, int end ) {
+		int[] positions = new int[ 16 ], lines = new int[ 16 ];
+		int count = 0, line = 1, records = 0, previous = offset;
+		int idx = offset;
+		while( idx < end ) {
+			char chr = input[ idx ];
+			if( chr == '\n' ) {
+				line++;
+			} else if( chr == '<' && idx + 1 < end ) {
+				char next = input[ idx + 1 ];
+				if( next == '!' || next == '?' ) {
+					/* Skip comments, marked sections, declarations and processing-instructions. */
+					int skip = skipDeclaration( input, idx, end );
+					line += countLines( input, idx, skip );
+					idx = skip;
+					continue;
+				}
+				if( isRecord( input, idx + 1, end ) ) {
+					if( records > 0 && idx - previous >= chunkLength ) {
+						if( count >= positions.length ) {
+							positions = Arrays.copyOf( positions, count * 2 );
+							lines = Arrays.copyOf( lines, count * 2 );
+						}
+						positions[ count ] = idx;
+						lines[ count ] = line;
+						count++;
+						previous = idx;
+					}
+					records++;
+				}
+				/* Skip the tag, which may contain quoted values. */
+				int skip = skipTag( input, idx + 1, end );
+				line += countLines( input, idx, skip );
+				idx = skip;
+				continue;
+			}
+			idx++;
+		}
+		return new int[][] { Arrays.copyOf( positions, count ), Arrays.copyOf( lines, count ) };
+	}
+
+	/* Return true if the record name, followed by a delimiter, is at the specified index. */
+	private boolean isRecord( char[] input, int idx, int end ) {
+		int length = recordName.length;
+		if( idx + length >= end ) {
+			return false;
+		}
+		for( int nameIdx = 0; nameIdx < length; nameIdx++ ) {
+			if( Character.toLowerCase( input[ idx + nameIdx ] ) != recordName[ nameIdx ] ) {
+				return false;
+			}
+		}
+		char chr = input[ idx + length ];
+		return chr <= 32 || chr == '>' || chr == '/' || chr == '<';
+	}
+
+	/* Return the index following a tag from the character after the '<'. */
+	private static int skipTag( char[] input, int idx, int end ) {
+		int quote = 0;
+		while( idx < end ) {
+			char chr = input[ idx++ ];
+			if( quote != 0 ) {
+				if( chr == quote ) {
+					quote = 0;
+				}
+			} else if( chr == '"' || chr == '\'' ) {
+				quote = chr;
+			} else if( chr == '>' ) {
+				break;
+			} else if( chr == '<' ) {
+				/* Unclosed tag. */
+				return idx - 1;
+			}
+		}
+		return idx;
+	}
+
+	/* Return the index following a markup declaration or processing-instruction from the '<'. */
+	private static int skipDeclaration( char[] input, int idx, int end ) {
+		if( startsWith( input, idx, end, "<!--" ) ) {
+			return indexAfter( input, idx + 4, end, "-->" );
+		} else if( startsWith( input, idx, end, "<![" ) ) {
+			return indexAfter( input, idx + 3, end, "]]>" );
+		} else if( input[ idx + 1 ] == '?' ) {
+			return indexAfter( input, idx + 2, end, ">" );
+		}
+		/* Declaration, which may contain a subset. */
+		int level = 0;
+		idx += 2;
+		while( idx < end ) {
+			char chr = input[ idx++ ];
+			if( chr == '[' ) {
+				level++;
+			} else if( chr == ']' ) {
+				level--;
+			} else if( chr == '>' && level <= 0 ) {
+				break;
+			}
+		}
+		return idx;
+	}
+
+	private static boolean startsWith( char[] input, int idx, int end, String prefix ) {
+		if( idx + prefix.length() > end ) {
+			return false;
+		}
+		for( int prefixIdx = 0; prefixIdx < prefix.length(); prefixIdx++ ) {
+			if( input[ idx + prefixIdx ] != prefix.charAt( prefixIdx ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexAfter( char[] input, int idx, int end, String delim ) {
+		while( idx < end ) {
+			if( startsWith( input, idx, end, delim ) ) {
+				return idx + delim.length();
+			}
+			idx++;
+		}
+		return end;
+	}
+
+	private static int countLines( char[] input, int start, int end ) {
+		int count = 0;
+		for( int idx = start; idx < end; idx++ ) {
+			if( input[ idx ] == '\n' ) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/* A part of the input, with the parser and validator that parse it. */
+	private class Chunk {
+		private char[] input;
+		private int start, offset, end, lineNumber;
+		private boolean last;
+		private Parser parser = new Parser();
+		private EventQueue queue = new EventQueue();
+		private TokenAdapter adapter = new TokenAdapter( queue );
+		private Validator validator = new Validator( adapter );
+		private ParseException error;
+
+		public Chunk( char[] input, int start, int offset, int end, int lineNumber, boolean last ) {
+			this.input = input;
+			this.start = start;
+			this.offset = offset;
+			this.end = end;
+			this.lineNumber = lineNumber;
+			this.last = last;
+		}
+
+		/* Parse the chunk from the specified context, or the start of the document if null. */
+		public void parse( Context context ) {
+			try {
+				validator.doctype( doctype );
+				parser.setDoctype( doctype );
+				/* The position is relative to the start of the input. */
+				int lineStart = offset;
+				while( lineStart > start && input[ lineStart - 1 ] != '\n' ) {
+					lineStart--;
+				}
+				if( context != null ) {
+					validator.setContext( context );
+				}
+				parser.begin( new HandlerAdapter( validator ), offset - start, lineNumber, lineStart - start );
+				if( context != null ) {
+					/* Only the first chunk has a begin event. */
+					queue.clear();
+				}
+				parser.push( input, offset, end - offset, last );
+			} catch( ParseException parseException ) {
+				error = parseException;
+			}
+		}
+	}
+}
@@ -35,6 +35,15 @@ public class ParseException extends Exception {
 		CLOSE_ELEMENT_NOT_PERMITTED( "Close element not permitted." ),
 		CLOSE_ELEMENT_MISSING( "Close element missing." ),
 		EMPTY_ELEMENT_MAY_NOT_CONTAIN_CHILDREN( "Empty element may not contain children." ),
+		INVALID_ATTRIBUTE_NAME( "Invalid attribute name." ),
+		NESTING_TOO_DEEP( "Elements nested too deeply." ),
+		TOO_MANY_ATTRIBUTES( "Too many attributes." ),
+		TOO_MANY_EVENTS( "Too many events." ),
+		SUBSET_TOO_LONG( "Declaration subset too long." ),
+		DOCUMENT_TOO_LONG( "Document too long." ),
+		TOO_MANY_ENTITY_EXPANSIONS( "Too many entity expansions." ),
+		DEADLINE_EXCEEDED( "Deadline exceeded." ),
+		CHARACTER_DATA_NOT_PERMITTED( "Character data not permitted." ),
 		OTHER( "Other error." );
 		private String name;
 		private Error( String name ) { this.name = name; }
@@ -43,7 +52,8 @@ public class ParseException extends Exception {
 
 	private Error error = Error.OTHER;
 	private String item = "", location = "";
-	private int line;
+	private int line, column;
+	private long offset = -1, byteOffset = -1;
 		
 	public ParseException( Error error ) {
 		if( error != null ) {
@@ -76,6 +86,33 @@ public class ParseException extends Exception {
 	public void setLineNumber( int lineNumber ) {
 		line = lineNumber;
 	}
+
+	/** @return the column of the last character read before the error, as returned by a Locator. */
+	public int getColumnNumber() {
+		return column;
+	}
+
+	public void setColumnNumber( int columnNumber ) {
+		column = columnNumber;
+	}
+
+	/** @return the number of characters read before the error, or -1 if unknown. */
+	public long getOffset() {
+		return offset;
+	}
+
+	public void setOffset( long offset ) {
+		this.offset = offset;
+	}
+
+	/** @return the number of bytes read before the error, or -1 if unknown. */
+	public long getByteOffset() {
+		return byteOffset;
+	}
+
+	public void setByteOffset( long offset ) {
+		byteOffset = offset;
+	}
 	
 	public String getItem() {
 		return item;
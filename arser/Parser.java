@@ -1,70 +1,727 @@
 
 package arser;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
-	This class parses markup from a Reader and passes the results onto a Handler.
+	This class parses markup from a Reader and passes the results onto a Handler,
+	or a TokenHandler.<p>
+	The Parser is also the Locator of its current position, which a handler
+	may query during an event.
 */
-public class Parser {
+public class Parser implements Locator {
+	/** The kinds of event that may be omitted with setEventMask(). */
+	public static final int
+		COMMENTS = 1 << EventQueue.COMMENT,
+		DECLARATIONS = 1 << EventQueue.DECLARATION,
+		INSTRUCTIONS = 1 << EventQueue.PI,
+		ENTITIES = 1 << EventQueue.ENTITY,
+		CHARACTERS = 1 << EventQueue.CHARACTERS,
+		SECTIONS = 1 << EventQueue.SECTION,
+		ALL_EVENTS = COMMENTS | DECLARATIONS | INSTRUCTIONS | ENTITIES | CHARACTERS | SECTIONS;
+
 	private static final int
 		INPUT_BUF_LEN = 32768,
-		TOKEN_BUF_LEN = 2048;
+		TOKEN_BUF_LEN = 2048,
+		MAX_TOKEN_LEN = 1 << 20,
+		DEADLINE_INTERVAL = 256;
+	/* The constructs that may be resumed in push mode from a checkpoint within them. */
+	private static final int
+		RESUME_NONE = 0,
+		RESUME_COMMENT = 1,
+		RESUME_SECTION = 2,
+		RESUME_INSTRUCTION = 3;
+	private static final IOException UNDERFLOW = new IOException( "Input underflow." );
 	
 	private Reader input;
-	private Handler handler;
+	private TokenHandler handler;
+	private SymbolTable symbols;
+	private EntityTable entities;
 	private char[] inputBuf = new char[ INPUT_BUF_LEN ];
 	private char[] tokenBuf = new char[ TOKEN_BUF_LEN ];
-	private int inputIdx, inputLen, tokenIdx, currentChar, currentLine;
+	private char[] nameBuf = new char[ TOKEN_BUF_LEN ];
+	private CharBuffer tokenView = CharBuffer.wrap( tokenBuf );
+	private CharBuffer nameView = CharBuffer.wrap( nameBuf );
+	private AttributeList attributes = new AttributeList();
+	private int inputIdx, inputLen, tokenIdx, currentChar;
+	/* The offset of the input buffer, the line number there and the offset following the last newline before it. */
+	private long bufferOffset, lineOffset;
+	private int bufferLine;
+	/* The input decoded by a ByteReader if read directly, and the number of bytes before the input buffer. */
+	private ByteReader byteInput;
+	private long bufferByteOffset;
+	/* The number of newlines and bytes in the input buffer up to scanIdx, to be scanned on from there. */
+	private int scanIdx, scanLines;
+	private long scanBytes;
+	private int maxTokenLength = MAX_TOKEN_LEN;
+	private int readAheadLength = INPUT_BUF_LEN, readAheadCount;
+	private int maxAttributes = Integer.MAX_VALUE, maxSubsetLength = Integer.MAX_VALUE;
+	private int maxEntityExpansions = Integer.MAX_VALUE, entityExpansions;
+	private long maxDocumentLength = Long.MAX_VALUE;
+	/* The deadline in milliseconds or zero if none, checked every DEADLINE_INTERVAL constructs. */
+	private long deadline;
+	private int deadlineCount;
+	private volatile boolean stopped;
+	private int eventMask = ALL_EVENTS, selectedEvents = ALL_EVENTS;
+	/* The projection, and the names of the skipped element and the open elements within it. */
+	private Projection projection;
+	private String[] skipNames = new String[ 16 ];
+	private int skipLevel;
+	private boolean chunkInstructions, expandEntities, coalesceCharacters;
+	/* Push mode state, see PushParser. */
+	private TokenHandler target;
+	private EventQueue queue;
+	private boolean push, finished;
+	private int markIdx, markTokenIdx, markEvents, markSkipLevel, failedLen;
+	/* The number of characters of the current document parsed again after the input ran out. */
+	long rescanLength;
+	/* The construct interrupted at the mark, the param of a marked section, and whether pieces of an instruction were passed on. */
+	private int resumeKind;
+	private String resumeParam;
+	private boolean instructionPieces;
+
+	/**
+		Use the names declared by the specified Doctype, or none if null.
+		Element and attribute names that are declared are passed to the Handler
+		as the canonical lower-case String from the SymbolTable of the Doctype,
+		rather than a new String.
+	*/
+	public void setDoctype( Doctype doctype ) {
+		symbols = ( doctype != null ) ? doctype.getSymbolTable() : null;
+		entities = ( doctype != null ) ? doctype.getEntityTable() : null;
+	}
+
+	/**
+		If true, numeric character references and references to the general entities
+		of the Doctype are replaced by their text in the character data, rather than
+		passed to the Handler as entity events. Other references, and references in
+		attribute values and marked sections, are passed on or left as they are.
+	*/
+	public void setExpandEntities( boolean expand ) {
+		expandEntities = expand;
+	}
+
+	/**
+		If true, each run of character data between markup, or within a marked section or comment,
+		is passed to the Handler as a single event, rather than in pieces of 2048 characters.
+		Runs longer than the maximum token length are still passed on in pieces.
+	*/
+	public void setCoalesceCharacters( boolean coalesce ) {
+		coalesceCharacters = coalesce;
+	}
+
+	/**
+		Set the maximum length of a name, attribute value, declaration parameter or
+		processing-instruction, beyond which a TOKEN_TOO_LONG error is raised.
+		The token buffer grows as required up to this length. The default is 1M characters.
+	*/
+	public void setMaxTokenLength( int length ) {
+		maxTokenLength = Math.max( length, TOKEN_BUF_LEN );
+	}
+
+	/**
+		Set the limits on the length of the document, the attributes of each tag,
+		the length of each declaration subset and the number of entity expansions.
+	*/
+	public void setLimits( Limits limits ) {
+		maxAttributes = limits.getMaxAttributes();
+		maxSubsetLength = limits.getMaxSubsetLength();
+		maxEntityExpansions = limits.getMaxEntityExpansions();
+		maxDocumentLength = limits.getMaxDocumentLength();
+	}
+
+	/**
+		Set the time, as returned by System.currentTimeMillis(), after which parsing
+		fails with a DEADLINE_EXCEEDED error, or zero for none. The time is checked
+		periodically between constructs and when input is read.
+	*/
+	public void setDeadline( long millis ) {
+		deadline = millis;
+	}
+
+	/**
+		Stop parsing once the current construct has been parsed, so that parse()
+		returns normally without an end event. This may be called by a handler, or
+		by another thread, while parsing or before it begins, in which case the next
+		parse returns without parsing anything. In push mode, further input is ignored
+		until the end of the input. The stop is cleared when parsing ends.
+	*/
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+		If the buffer count is greater than zero, the input of parse() is read by a
+		ReadAheadReader on a background thread into the specified number of buffers
+		of the specified length, so that reading and decoding the input overlaps
+		with parsing. The default is zero, in which case the input is read as required.
+	*/
+	public void setReadAhead( int bufferLength, int bufferCount ) {
+		readAheadLength = bufferLength;
+		readAheadCount = bufferCount;
+	}
+
+	/**
+		Set the kinds of event passed to the Handler, as a combination of COMMENTS,
+		DECLARATIONS, INSTRUCTIONS, ENTITIES, CHARACTERS and SECTIONS. Constructs of
+		the other kinds are skipped without buffering their text, only their end
+		being found, so errors within them may not be reported. Open, close, begin
+		and end events are always passed on. The default is ALL_EVENTS.
+	*/
+	public void setEventMask( int mask ) {
+		selectedEvents = mask;
+		setSkipLevel( skipLevel );
+	}
+
+	/**
+		Skip the content of the elements skipped by the specified Projection, or none if null.
+		The open and close events of a skipped element are passed on, but its content
+		is only scanned for the matching end tag, without buffering names, attributes
+		or text. A Validator fed by this Parser must be given the same Projection.
+	*/
+	public void setProjection( Projection proj ) {
+		projection = proj;
+	}
+
+	/**
+		If true, processing-instructions longer than 2048 characters are passed
+		to the Handler in consecutive pieces, as for comments and character data,
+		rather than buffered whole.
+	*/
+	public void setChunkInstructions( boolean chunk ) {
+		chunkInstructions = chunk;
+	}
+
+	/**
+		Parse the specified bytes and feed the resulting markup events to the Handler.
+		ISO-8859-1 and UTF-8 are decoded directly by a ByteReader, other encodings
+		are decoded by an InputStreamReader.
+	*/
+	public void parse( InputStream input, String encoding, Handler handler ) throws IOException, ParseException {
+		if( ByteReader.isSupported( encoding ) ) {
+			parse( new ByteReader( input, encoding ), handler );
+		} else {
+			parse( new InputStreamReader( input, encoding ), handler );
+		}
+	}
+
+	/**
+		Parse the specified file and feed the resulting markup events to the Handler.
+		ISO-8859-1 and UTF-8 files are mapped into memory in windows and decoded
+		directly by a ByteReader, so that files larger than 2GB may be parsed.
+		Gzip-compressed files are decompressed as they are parsed.
+	*/
+	public void parse( File file, String encoding, Handler handler ) throws IOException, ParseException {
+		if( ParallelGZIPInputStream.isGzip( file ) ) {
+			InputStream inputStream = new ParallelGZIPInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+			try {
+				parse( inputStream, encoding, handler );
+			} finally {
+				inputStream.close();
+			}
+			return;
+		}
+		RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+		try {
+			if( ByteReader.isSupported( encoding ) ) {
+				parse( new ByteReader( randomAccessFile.getChannel(), encoding ), handler );
+			} else {
+				parse( new InputStreamReader( new FileInputStream( randomAccessFile.getFD() ), encoding ), handler );
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+		Parse the specified bytes and feed the resulting markup events to the Handler.
+	*/
+	public void parse( byte[] input, int offset, int length, String encoding, Handler handler ) throws IOException, ParseException {
+		parse( ByteBuffer.wrap( input, offset, length ), encoding, handler );
+	}
+
+	/**
+		Parse the bytes from the position to the limit of the specified buffer
+		and feed the resulting markup events to the Handler.
+	*/
+	public void parse( ByteBuffer input, String encoding, Handler handler ) throws IOException, ParseException {
+		if( ByteReader.isSupported( encoding ) ) {
+			parse( new ByteReader( input, encoding ), handler );
+		} else {
+			parse( new StringReader( Charset.forName( encoding ).decode( input ).toString() ), handler );
+		}
+	}
 
 	/**
 		Parse the specified input and feed the resulting markup events to the Handler.
 	*/
 	public void parse( Reader input, Handler handler ) throws IOException, ParseException {
-		this.input = input;
+		parse( input, new HandlerAdapter( handler ) );
+	}
+
+	/**
+		Parse the specified input and feed the resulting markup events to the TokenHandler.
+	*/
+	public void parse( Reader input, TokenHandler handler ) throws IOException, ParseException {
+		ReadAheadReader readAhead = readAheadCount > 0 ? new ReadAheadReader( input, readAheadLength, readAheadCount ) : null;
+		this.input = readAhead != null ? readAhead : input;
+		/* Bytes read ahead cannot be related to the input buffer. */
+		byteInput = readAhead == null && input instanceof ByteReader ? ( ByteReader ) input : null;
 		this.handler = handler;
-		inputIdx = inputLen = tokenIdx = 0;
-		currentLine = 1;
+		push = false;
+		inputIdx = inputLen = tokenIdx = entityExpansions = deadlineCount = 0;
+		setSkipLevel( 0 );
+		bufferOffset = lineOffset = bufferByteOffset = 0;
+		bufferLine = 1;
+		scanIdx = 0;
 		try {
 			handler.begin();
+			while( running() && step() ) {
+			}
+		} catch( ParseException parseException ) {
+			locate( parseException );
+			throw parseException;
+		} finally {
+			stopped = false;
+			if( readAhead != null ) {
+				/* The input belongs to the caller, so is not closed. */
+				readAhead.stop();
+			}
+		}
+	}
+
+	/** @see Locator */
+	public long getOffset() {
+		return bufferOffset + inputIdx;
+	}
+
+	/** @see Locator */
+	public long getByteOffset() {
+		if( byteInput == null ) {
+			return -1;
+		}
+		scan();
+		return bufferByteOffset + scanBytes;
+	}
+
+	/** @see Locator */
+	public int getLineNumber() {
+		scan();
+		return bufferLine + scanLines;
+	}
+
+	/* Count the newlines and bytes in the input buffer up to the current character, from where the last call stopped. */
+	private void scan() {
+		if( inputIdx < scanIdx ) {
+			scanIdx = 0;
+		}
+		if( scanIdx == 0 ) {
+			scanLines = 0;
+			scanBytes = 0;
+		}
+		boolean utf8 = byteInput != null && byteInput.isUtf8();
+		for( ; scanIdx < inputIdx; scanIdx++ ) {
+			char chr = inputBuf[ scanIdx ];
+			if( chr == 10 ) {
+				scanLines++;
+			}
+			if( chr < 0x80 || !utf8 ) {
+				scanBytes++;
+			} else if( chr < 0x800 ) {
+				scanBytes += 2;
+			} else if( Character.isHighSurrogate( chr ) ) {
+				/* The low surrogate is counted with the high. */
+				scanBytes += 4;
+			} else if( !Character.isLowSurrogate( chr ) ) {
+				scanBytes += 3;
+			}
+		}
+	}
+
+	/** @see Locator */
+	public int getColumnNumber() {
+		int idx = inputIdx;
+		while( idx > 0 && inputBuf[ idx - 1 ] != 10 ) {
+			idx--;
+		}
+		return ( int ) ( bufferOffset + inputIdx - ( idx > 0 ? bufferOffset + idx : lineOffset ) );
+	}
+
+	/* Set the position of the specified exception to the current position. */
+	private void locate( ParseException parseException ) {
+		parseException.setLineNumber( getLineNumber() );
+		parseException.setColumnNumber( getColumnNumber() );
+		parseException.setOffset( getOffset() );
+		parseException.setByteOffset( getByteOffset() );
+	}
+
+	/* Account for the specified length of input being discarded from the start of the input buffer. */
+	private void discardInput( int length ) {
+		for( int idx = 0; idx < length; idx++ ) {
+			if( inputBuf[ idx ] == 10 ) {
+				bufferLine++;
+				lineOffset = bufferOffset + idx + 1;
+			}
+		}
+		bufferOffset += length;
+		scanIdx = 0;
+	}
+
+	/*
+		Begin parsing in push mode, in which input is passed to push() as it arrives.
+		Events are queued while each construct is parsed, and passed onto the handler
+		only once it is complete, so that a construct that is interrupted by the end
+		of the available input can be parsed again from the start when there is more.
+		If the handler is an EventQueue, events are recorded into it directly.
+	*/
+	void begin( TokenHandler handler ) throws ParseException {
+		begin( handler, 0, 1, 0 );
+	}
+
+	/* Begin parsing in push mode from the specified position, as returned by a Locator, and the offset of the start of the line. */
+	void begin( TokenHandler handler, long offset, int lineNumber, long lineStart ) throws ParseException {
+		if( handler instanceof EventQueue ) {
+			target = null;
+			queue = ( EventQueue ) handler;
+		} else {
+			target = handler;
+			queue = new EventQueue();
+		}
+		this.handler = queue;
+		push = true;
+		finished = false;
+		byteInput = null;
+		scanIdx = 0;
+		inputIdx = inputLen = tokenIdx = markIdx = markTokenIdx = markSkipLevel = failedLen = entityExpansions = deadlineCount = 0;
+		resumeKind = RESUME_NONE;
+		instructionPieces = false;
+		rescanLength = 0;
+		setSkipLevel( 0 );
+		bufferOffset = offset;
+		bufferLine = lineNumber;
+		lineOffset = lineStart;
+		handler.begin();
+		if( target != null ) {
+			queue.replay( target );
+		}
+	}
+
+	/*
+		Append the specified input in push mode and parse as far as possible.
+		If last is true, this is the end of the input.
+	*/
+	void push( char[] buf, int offset, int length, boolean last ) throws ParseException {
+		try {
+			pushInput( buf, offset, length, last );
+		} finally {
+			if( last ) {
+				stopped = false;
+			}
+		}
+	}
+
+	private void pushInput( char[] buf, int offset, int length, boolean last ) throws ParseException {
+		if( stopped ) {
+			return;
+		}
+		if( !push ) {
+			throw new ParseException( "Parser is not in push mode.", "" );
+		}
+		/* Discard input before the current construct, and grow the buffer as required. */
+		int pending = inputLen - markIdx;
+		discardInput( markIdx );
+		if( pending + length > inputBuf.length ) {
+			inputBuf = Arrays.copyOf( inputBuf, Math.max( inputBuf.length * 2, pending + length ) );
+		}
+		System.arraycopy( inputBuf, markIdx, inputBuf, 0, pending );
+		System.arraycopy( buf, offset, inputBuf, pending, length );
+		inputIdx = markIdx = 0;
+		inputLen = pending + length;
+		finished = last;
+		if( bufferOffset + inputLen > maxDocumentLength ) {
+			push = false;
+			ParseException parseException = new ParseException( ParseException.Error.DOCUMENT_TOO_LONG );
+			locate( parseException );
+			throw parseException;
+		}
+		if( !last && failedLen > 0 && inputLen < failedLen * 2 && !terminates( buf, offset, length ) ) {
+			/* The interrupted construct cannot be complete yet. */
+			return;
+		}
+		try {
 			while( true ) {
-				nextChar();
-				if( currentChar < 0 ) {
-					/* End of file. */
-					if( tokenIdx > 0 ) {
-						flushCharacters();
-					}
-					handler.end();
+				mark();
+				if( !running() ) {
 					return;
-				} else if( currentChar == '<' ) {
-					/* Tag. */
-					if( tokenIdx > 0 ) {
-						flushCharacters();
-					}
-					while( currentChar == '<' )	{
-						tag();
-					}
-				} else if( currentChar == '&' ) {
-					/* Entity. */
-					if( tokenIdx > 0 ) {
-						flushCharacters();
-					}
-					nextCharNoEof();
-					handler.entity( token( ';' ) );
+				}
+				if( resumeKind != RESUME_NONE ) {
+					resume();
+				} else if( !step() ) {
+					mark();
+					push = false;
+					return;
+				}
+			}
+		} catch( IOException ioException ) {
+			if( ioException != UNDERFLOW ) {
+				throw new ParseException( ioException.toString(), "" );
+			}
+			/* Parse the construct again when there is more input. */
+			rescanLength += inputIdx - markIdx;
+			queue.truncate( markEvents );
+			inputIdx = markIdx;
+			tokenIdx = markTokenIdx;
+			setSkipLevel( markSkipLevel );
+			failedLen = inputLen - markIdx;
+		} catch( ParseException parseException ) {
+			push = false;
+			if( target != null && !queue.isEmpty() ) {
+				/* Pass on the events preceding the error, as Parser.parse() would have. */
+				queue.replay( target );
+			}
+			locate( parseException );
+			throw parseException;
+		}
+	}
+
+	/* In push mode, return true if all the input has been parsed and no construct is incomplete. */
+	boolean isIdle() {
+		return push && markIdx == inputLen;
+	}
+
+	/* In push mode, pass on any pending character data, as if markup followed. */
+	void flush() throws ParseException {
+		if( tokenIdx > 0 ) {
+			flushCharacters();
+		}
+		mark();
+	}
+
+	/*
+		In push mode, mark a point within a long construct from which it may be resumed,
+		rather than parsed again from the start, when more input is pushed. The next
+		character is the first not yet consumed.
+	*/
+	private void checkpoint( int kind ) throws ParseException {
+		if( push ) {
+			resumeKind = kind;
+			mark();
+		}
+	}
+
+	/* Continue the construct interrupted at the last checkpoint. */
+	private void resume() throws IOException, ParseException {
+		switch( resumeKind ) {
+			case RESUME_COMMENT:
+				commentBody();
+				whitespace();
+				comments();
+				break;
+			case RESUME_SECTION:
+				sectionBody( resumeParam );
+				break;
+			case RESUME_INSTRUCTION:
+				nextCharNoEof();
+				instruction();
+				break;
+		}
+	}
+
+	/* Pass the queued events onto the handler and mark the start of the next construct. */
+	private void mark() throws ParseException {
+		mark( inputIdx );
+	}
+
+	/* Pass the queued events onto the handler and mark the start of the next construct at the specified index. */
+	private void mark( int idx ) throws ParseException {
+		if( target != null && !queue.isEmpty() ) {
+			queue.replay( target );
+		}
+		markEvents = queue.size();
+		markIdx = idx;
+		markTokenIdx = tokenIdx;
+		markSkipLevel = skipLevel;
+	}
+
+	/* Set the nesting level of the elements within the skipped element, no events other than its close being passed on while it is open. */
+	private void setSkipLevel( int level ) {
+		skipLevel = level;
+		eventMask = level > 0 ? 0 : selectedEvents;
+	}
+
+	/* Return true if the specified input contains a character that may end a construct. */
+	private static boolean terminates( char[] buf, int offset, int length ) {
+		for( int idx = offset, end = offset + length; idx < end; idx++ ) {
+			if( buf[ idx ] == '>' || buf[ idx ] == ';' ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* Return false if parsing has been stopped, and check the deadline periodically. */
+	private boolean running() throws ParseException {
+		if( deadline != 0 && --deadlineCount < 0 ) {
+			deadlineCount = DEADLINE_INTERVAL;
+			checkDeadline();
+		}
+		return !stopped;
+	}
+
+	private void checkDeadline() throws ParseException {
+		if( deadline != 0 && System.currentTimeMillis() > deadline ) {
+			throw new ParseException( ParseException.Error.DEADLINE_EXCEEDED );
+		}
+	}
+
+	/* Parse the next character or markup construct, returning false at the end of the input. */
+	private boolean step() throws IOException, ParseException {
+		nextChar();
+		if( currentChar < 0 ) {
+			/* End of file. */
+			if( tokenIdx > 0 ) {
+				flushCharacters();
+			}
+			handler.end();
+			return false;
+		} else if( currentChar == '<' ) {
+			/* Tag. */
+			if( tokenIdx > 0 ) {
+				flushCharacters();
+				markConstruct();
+			}
+			while( currentChar == '<' )	{
+				tag();
+				if( currentChar == '<' ) {
+					/* Unclosed tag followed by another. */
+					markConstruct();
+				}
+			}
+		} else if( currentChar == '&' && expandEntities ) {
+			/* Entity, possibly expanded into the characters. */
+			reference();
+		} else if( currentChar == '&' ) {
+			/* Entity. */
+			if( tokenIdx > 0 ) {
+				flushCharacters();
+				markConstruct();
+			}
+			nextCharNoEof();
+			if( ( eventMask & ENTITIES ) != 0 ) {
+				scanToken( ';' );
+				handler.entity( tokenView() );
+			} else {
+				skipToken( ';' );
+			}
+		} else if( ( eventMask & CHARACTERS ) == 0 ) {
+			/* Characters that are not required, up to the next markup. */
+			skipRun( '<', '&' );
+		} else {
+			/* Characters, up to the next markup. */
+			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
+			scanRun( '<', '&', charactersLength() );
+			if( charactersFull() ) {
+				flushCharacters();
+			}
+		}
+		return true;
+	}
+
+	/* Read an entity reference following any pending characters, and expand it if possible. */
+	private void reference() throws IOException, ParseException {
+		int start = tokenIdx;
+		nextCharNoEof();
+		scanToken( ';' );
+		int length = tokenIdx - start;
+		if( length > 0 && tokenBuf[ start ] == '#' ) {
+			int codePoint = EntityTable.codePoint( tokenBuf, start + 1, length - 1 );
+			if( codePoint >= 0 ) {
+				tokenIdx = start;
+				if( Character.isBmpCodePoint( codePoint ) ) {
+					appendCharacter( ( char ) codePoint );
 				} else {
-					/* Characters. */
-					tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
-					if( tokenIdx >= TOKEN_BUF_LEN ) {
+					appendCharacter( Character.highSurrogate( codePoint ) );
+					appendCharacter( Character.lowSurrogate( codePoint ) );
+				}
+				return;
+			}
+		} else if( entities != null ) {
+			int id = entities.getId( tokenBuf, start, length );
+			if( id >= 0 ) {
+				if( ++entityExpansions > maxEntityExpansions ) {
+					throw new ParseException( ParseException.Error.TOO_MANY_ENTITY_EXPANSIONS );
+				}
+				tokenIdx = start;
+				char[] text = entities.getChars( id );
+				for( int offset = 0; offset < text.length; ) {
+					int count = Math.min( text.length - offset, charactersLength() - tokenIdx );
+					System.arraycopy( text, offset, tokenBuf, tokenIdx, count );
+					tokenIdx += count;
+					offset += count;
+					if( charactersFull() ) {
 						flushCharacters();
 					}
 				}
+				return;
 			}
-		} catch( ParseException parseException ) {
-			parseException.setLineNumber( currentLine );
-			throw parseException;
+		}
+		/* Pass on the pending characters, then the reference. */
+		if( start > 0 ) {
+			tokenIdx = start;
+			flushCharacters();
+			System.arraycopy( tokenBuf, start, tokenBuf, 0, length );
+		}
+		tokenIdx = length;
+		if( ( eventMask & ENTITIES ) != 0 ) {
+			handler.entity( tokenView() );
+		} else {
+			tokenIdx = 0;
+		}
+	}
+
+	/* Append a character to the pending characters. */
+	private void appendCharacter( char chr ) throws ParseException {
+		tokenBuf[ tokenIdx++ ] = chr;
+		if( charactersFull() ) {
+			flushCharacters();
+		}
+	}
+
+	/* Return the length of the pending characters at which they are passed on or the token buffer grown. */
+	private int charactersLength() {
+		return coalesceCharacters ? Math.min( tokenBuf.length, maxTokenLength ) : TOKEN_BUF_LEN;
+	}
+
+	/* Return true if the pending characters must be passed on, growing the token buffer instead when coalescing. */
+	private boolean charactersFull() throws ParseException {
+		if( tokenIdx < charactersLength() ) {
+			return false;
+		}
+		if( coalesceCharacters && tokenBuf.length < maxTokenLength ) {
+			growTokenBuf();
+			return false;
+		}
+		return true;
+	}
+
+	/* In push mode, mark the start of the construct at the current character once the preceding characters are flushed. */
+	private void markConstruct() throws ParseException {
+		if( push ) {
+			mark( inputIdx - 1 );
 		}
 	}
 
@@ -76,63 +733,105 @@ public class Parser {
 		if( currentChar == '?' ) {
 			/* Processing instruction.*/
 			nextCharNoEof();
-			handler.pi( token( '>' ) );
+			instruction();
 		} else if( currentChar == '!' ) {
 			nextCharNoEof();
 			if( currentChar == '>' ) {
 				/* Empty comment.*/
-				handler.comment( "" );
+				if( ( eventMask & COMMENTS ) != 0 ) {
+					handler.comment( "" );
+				}
 			} else if( currentChar == '-' ) {
 				/* Comment.*/
-				while( true ) {
-					if( currentChar == '-' ) {
-						comment();
-						whitespace();
-					} else if( currentChar == '>' ) {
-						break;
-					} else {
-						throw new ParseException( ParseException.Error.EXPECTED_GT_HERE );
-					}
-				}
+				comments();
 			} else if( currentChar == '[' ) {
 				/* Marked section.*/
 				markedSection();
 			} else {
 				/* Some other declaration.*/
-				handler.declaration( declaration() );
+				if( ( eventMask & DECLARATIONS ) != 0 ) {
+					handler.declaration( declaration() );
+				} else {
+					skipDeclaration();
+				}
 			}
 		} else if( currentChar == '/' ) {
 			/* Close tag.*/
 			nextCharNoEof();
-			String name = nameToken();
+			if( skipLevel > 0 ) {
+				/* Within skipped content, an end tag closes the innermost open element of that name, or the innermost if empty. */
+				CharSequence name = elementName();
+				whitespace();
+				int level = skipLevel - 1;
+				if( name.length() > 0 ) {
+					String endName = projection.getEndTagName( name );
+					while( level >= 0 && skipNames[ level ] != endName ) {
+						level--;
+					}
+				}
+				if( level >= 0 ) {
+					setSkipLevel( level );
+					if( level == 0 ) {
+						if( currentChar != '<' && currentChar != '>' ) {
+							throw new ParseException( ParseException.Error.EXPECTED_LT_OR_GT_HERE );
+						}
+						handler.close( skipNames[ 0 ] );
+					}
+				}
+				return;
+			}
+			CharSequence name = elementName();
 			whitespace();
 			if( currentChar != '<' && currentChar != '>' ) {
 				throw new ParseException( ParseException.Error.EXPECTED_LT_OR_GT_HERE );
 			}
 			handler.close( name );
+		} else if( skipLevel > 0 ) {
+			/* Open tag within skipped content. */
+			/* Only the elements whose end tags may not be omitted are kept open. */
+			String endName = projection.getEndTagName( elementName() );
+			skipAttributes();
+			if( currentChar == '/' ) {
+				/* Self-closing tag. */
+				nextCharNoEof();
+			} else if( endName != null ) {
+				openSkipped( endName );
+			}
 		} else {
 			/* Open tag.*/
-			String name = nameToken();
+			CharSequence name = elementName();
 			if( name.length() <= 0 ) {
 				throw new ParseException( ParseException.Error.INVALID_TAG_NAME );
 			}
-			List<Attribute> attributes = new ArrayList<Attribute>();
+			attributes.clear();
 			while( true ) {
 				/* Parse attributes.*/
 				whitespace();
 				if( currentChar == '<' || currentChar == '>' || currentChar == '/' ) {
 					break;
 				} else {
-					String attName = nameToken();
+					/* The value is read into the token buffer following the name. */
+					scanName();
+					int nameLen = tokenIdx;
+					if( nameLen == 0 && currentChar != '=' ) {
+						/* A delimiter that cannot begin a name. */
+						throw new ParseException( ParseException.Error.INVALID_ATTRIBUTE_NAME );
+					}
+					if( attributes.size() >= maxAttributes ) {
+						throw new ParseException( ParseException.Error.TOO_MANY_ATTRIBUTES );
+					}
+					String attName = symbolName( nameLen );
 					whitespace();
 					if( currentChar == '=' ) {
 						nextCharNoEof();
 						whitespace();
-						attributes.add( new Attribute( attName, valueToken() ) );
+						scanValue();
+						attributes.add( attName, tokenBuf, 0, nameLen, nameLen, tokenIdx - nameLen );
 					} else {
 						/* Minimized attribute.*/
-						attributes.add( new Attribute( attName ) );
+						attributes.addMinimized( tokenBuf, 0, nameLen );
 					}
+					tokenIdx = 0;
 				}
 			}
 			handler.open( name, attributes );
@@ -143,8 +842,53 @@ public class Parser {
 					throw new ParseException( ParseException.Error.EXPECTED_GT_HERE );
 				}
 				handler.close( name );
+			} else if( projection != null && projection.isSkipped( name ) ) {
+				/* Skip the content up to the matching end tag. */
+				openSkipped( projection.getEndTagName( name ) );
+			}
+		}
+	}
+
+	/* Push an element onto the stack of open elements within skipped content. */
+	private void openSkipped( String name ) {
+		if( skipLevel >= skipNames.length ) {
+			skipNames = Arrays.copyOf( skipNames, skipLevel * 2 );
+		}
+		skipNames[ skipLevel ] = name;
+		setSkipLevel( skipLevel + 1 );
+	}
+
+	/* Skip the attributes of a tag within skipped content, up to the end of the tag. */
+	private void skipAttributes() throws IOException, ParseException {
+		while( true ) {
+			whitespace();
+			if( currentChar == '<' || currentChar == '>' || currentChar == '/' ) {
+				break;
+			} else if( currentChar == '"' || currentChar == '\'' ) {
+				int delim = currentChar;
+				nextCharNoEof();
+				skipToken( delim );
+				nextCharNoEof();
+			} else if( !skipToken() ) {
+				/* A delimiter such as '='. */
+				nextCharNoEof();
+			}
+		}
+	}
+
+	/* Skip an unquoted name or value, returning false if there is none at the current character. */
+	private boolean skipToken() throws IOException, ParseException {
+		boolean skipped = false;
+		DELIMIT:
+		while( currentChar > 32 ) {
+			switch( currentChar ) {
+				case '<': case '>': case '[': case ']': case ';': case '=': case '/': case '"': case '\'':
+					break DELIMIT;
 			}
+			skipped = true;
+			nextCharNoEof();
 		}
+		return skipped;
 	}
 
 	private List<Declaration> declarationSubset() throws IOException, ParseException {
@@ -152,8 +896,12 @@ public class Parser {
 		if( currentChar != '[' ) {
 			throw new ParseException( ParseException.Error.EXPECTED_OB_HERE );
 		}
+		long start = getOffset();
 		nextCharNoEof();
 		while( true ) {
+			if( getOffset() - start > maxSubsetLength ) {
+				throw new ParseException( ParseException.Error.SUBSET_TOO_LONG );
+			}
 			whitespace();
 			if( currentChar == '<' ) {
 				nextCharNoEof();
@@ -280,7 +1028,15 @@ public class Parser {
 		if( currentChar != '[' ) {
 			throw new ParseException( ParseException.Error.EXPECTED_OB_HERE );
 		}
+		sectionBody( param );
+	}
+
+	/* Parse the content of a marked section up to the closing '>', generating an event for each piece. */
+	private void sectionBody( String param ) throws IOException, ParseException {
+		boolean skip = ( eventMask & SECTIONS ) == 0;
+		resumeParam = param;
 		while( true ) {
+			checkpoint( RESUME_SECTION );
 			nextCharNoEof();
 			if( currentChar == ']' ) {
 				nextCharNoEof();
@@ -291,25 +1047,43 @@ public class Parser {
 						throw new ParseException( ParseException.Error.EXPECTED_GT_HERE );
 					}
 					if( tokenIdx > 0 ) {
-						handler.characters( param, new String( tokenBuf, 0, tokenIdx ) );
-						tokenIdx = 0;
+						handler.characters( param, tokenView() );
 					}
+					resumeKind = RESUME_NONE;
 					break;
-				} else {
+				} else if( !skip ) {
 					/* False alarm.*/
 					tokenBuf[ tokenIdx++ ] = ']';
-					if( tokenIdx >= TOKEN_BUF_LEN ) {
-						handler.characters( param, new String( tokenBuf, 0, TOKEN_BUF_LEN ) );
-						tokenIdx = 0;
+					if( charactersFull() ) {
+						handler.characters( param, tokenView() );
 					}
 				}
 			}
+			if( skip ) {
+				skipRun( ']', ']' );
+				continue;
+			}
 			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
-			if( tokenIdx >= TOKEN_BUF_LEN ) {
-				handler.characters( param, new String( tokenBuf, 0, TOKEN_BUF_LEN ) );
-				tokenIdx = 0;
+			scanRun( ']', ']', charactersLength() );
+			if( charactersFull() ) {
+				handler.characters( param, tokenView() );
+			}
+		}
+	}
+
+	/* Parse the comments of a declaration from the first hyphen to the closing '>'. */
+	private void comments() throws IOException, ParseException {
+		while( true ) {
+			if( currentChar == '-' ) {
+				comment();
+				whitespace();
+			} else if( currentChar == '>' ) {
+				break;
+			} else {
+				throw new ParseException( ParseException.Error.EXPECTED_GT_HERE );
 			}
 		}
+		resumeKind = RESUME_NONE;
 	}
 
 	/* Parse a comment from the first hyphen and generate an event. */
@@ -319,34 +1093,97 @@ public class Parser {
 		if( hyphen != '-' || currentChar != hyphen ) {
 			throw new ParseException( ParseException.Error.EXPECTED_HY_HERE );
 		}
+		commentBody();
+	}
+
+	/* Parse the content of a comment up to the character following the closing hyphens, and generate an event. */
+	private void commentBody() throws IOException, ParseException {
+		boolean skip = ( eventMask & COMMENTS ) == 0;
 		while( true ) {
+			checkpoint( RESUME_COMMENT );
 			nextCharNoEof();
 			if( currentChar == '-' ) {
 				nextCharNoEof();
 				if( currentChar == '-' ) {
 					nextCharNoEof();
 					if( tokenIdx > 0 ) {
-						handler.comment( new String( tokenBuf, 0, tokenIdx ) );
-						tokenIdx = 0;
+						handler.comment( tokenView() );
 					}
 					break;
-				} else {
+				} else if( !skip ) {
 					/* False alarm.*/
 					tokenBuf[ tokenIdx++ ] = '-';
-					if( tokenIdx >= TOKEN_BUF_LEN ) {
-						handler.comment( new String( tokenBuf, 0, TOKEN_BUF_LEN ) );
-						tokenIdx = 0;
+					if( charactersFull() ) {
+						handler.comment( tokenView() );
 					}
 				}
 			}
+			if( skip ) {
+				skipRun( '-', '-' );
+				continue;
+			}
 			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
-			if( tokenIdx >= TOKEN_BUF_LEN ) {
-				handler.comment( new String( tokenBuf, 0, TOKEN_BUF_LEN ) );
-				tokenIdx = 0;
+			scanRun( '-', '-', charactersLength() );
+			if( charactersFull() ) {
+				handler.comment( tokenView() );
 			}
 		}
 	}
 
+	/* Parse a processing-instruction from its first character, generating an event for the whole, or for each piece if chunked. */
+	private void instruction() throws IOException, ParseException {
+		boolean skip = ( eventMask & INSTRUCTIONS ) == 0;
+		while( currentChar != '>' ) {
+			if( skip ) {
+				skipRun( '>', '>' );
+			} else if( chunkInstructions ) {
+				tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
+				scanRun( '>', '>', TOKEN_BUF_LEN );
+				if( tokenIdx >= TOKEN_BUF_LEN ) {
+					handler.pi( tokenView() );
+					instructionPieces = true;
+				}
+			} else {
+				if( tokenIdx >= tokenBuf.length ) {
+					growTokenBuf();
+				}
+				tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
+				scanRun( '>', '>', tokenBuf.length );
+			}
+			checkpoint( RESUME_INSTRUCTION );
+			nextCharNoEof();
+		}
+		boolean pieces = instructionPieces;
+		instructionPieces = false;
+		resumeKind = RESUME_NONE;
+		if( !skip && ( tokenIdx > 0 || !pieces ) ) {
+			handler.pi( tokenView() );
+		}
+	}
+
+	/* Read a value, which may contain whitespace or "special" characters if quoted, into the token buffer. */
+	private void scanValue() throws IOException, ParseException {
+		if( currentChar == '\'' || currentChar == '"' ) {
+			int delim = currentChar;
+			nextCharNoEof();
+			scanToken( delim );
+			nextCharNoEof();
+		} else {
+			scanName();
+		}
+	}
+
+	/* Return the canonical String for the name of the specified length in the token buffer, or null if it is not in the symbol table. */
+	private String symbolName( int length ) {
+		if( symbols != null ) {
+			int id = symbols.getId( tokenBuf, 0, length );
+			if( id >= 0 ) {
+				return symbols.getName( id );
+			}
+		}
+		return null;
+	}
+
 	/* Read a String, which may contain whitespace or "special" characters if quoted. */
 	private String valueToken() throws IOException, ParseException {
 		if( currentChar == '\'' || currentChar == '"' ) {
@@ -360,23 +1197,47 @@ public class Parser {
 		}
 	}
 
+	/* Read an element name, returning the canonical String or a view that is valid until the next name. */
+	private CharSequence elementName() throws IOException, ParseException {
+		scanName();
+		String name = symbolName( tokenIdx );
+		if( name != null ) {
+			tokenIdx = 0;
+			return name;
+		}
+		if( tokenIdx > nameBuf.length ) {
+			nameBuf = new char[ tokenBuf.length ];
+			nameView = CharBuffer.wrap( nameBuf );
+		}
+		System.arraycopy( tokenBuf, 0, nameBuf, 0, tokenIdx );
+		nameView.clear();
+		nameView.limit( tokenIdx );
+		tokenIdx = 0;
+		return nameView;
+	}
+
 	/* Read a String, delimited by a "special" character or whitespace. */
 	private String nameToken() throws IOException, ParseException {
+		scanName();
+		String str = new String( tokenBuf, 0, tokenIdx );
+		tokenIdx = 0;
+		return str;
+	}
+
+	/* Read a name into the token buffer. */
+	private void scanName() throws IOException, ParseException {
 		DELIMIT:
 		while( currentChar > 32 ) {
 			switch( currentChar ) {
 				case '<': case '>': case '[': case ']': case ';': case '=': case '/':
 					break DELIMIT;
 			}
-			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
-			if( tokenIdx >= TOKEN_BUF_LEN ) {
-				throw new ParseException( ParseException.Error.TOKEN_TOO_LONG );
+			if( tokenIdx >= tokenBuf.length ) {
+				growTokenBuf();
 			}
+			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
 			nextCharNoEof();
 		}
-		String str = new String( tokenBuf, 0, tokenIdx );
-		tokenIdx = 0;
-		return str;
 	}
 
 	/* Return a token delimited by whitespace, '>', '[' or '--comment--' */
@@ -388,16 +1249,16 @@ public class Parser {
 					commentSeparator();
 					break;
 				} else {
-					tokenBuf[ tokenIdx++ ] = '-';
-					if( tokenIdx >= TOKEN_BUF_LEN ) {
-						throw new ParseException( ParseException.Error.TOKEN_TOO_LONG );
+					if( tokenIdx >= tokenBuf.length ) {
+						growTokenBuf();
 					}
+					tokenBuf[ tokenIdx++ ] = '-';
 				}
 			}
-			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
-			if( tokenIdx >= TOKEN_BUF_LEN ) {
-				throw new ParseException( ParseException.Error.TOKEN_TOO_LONG );
+			if( tokenIdx >= tokenBuf.length ) {
+				growTokenBuf();
 			}
+			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
 			nextCharNoEof();
 		}
 		String str = new String( tokenBuf, 0, tokenIdx );
@@ -412,10 +1273,10 @@ public class Parser {
 		}
 		int level = 0;
 		while( true ) {
-			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
-			if( tokenIdx >= TOKEN_BUF_LEN ) {
-				throw new ParseException( ParseException.Error.TOKEN_TOO_LONG );
+			if( tokenIdx >= tokenBuf.length ) {
+				growTokenBuf();
 			}
+			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
 			if( currentChar == '(' ) {
 				level++;
 			} else if( currentChar == ')' ) {
@@ -429,10 +1290,10 @@ public class Parser {
 		nextCharNoEof();
 		if( currentChar == '?' || currentChar == '+' || currentChar == '*' ) {
 			/* Handle repetition operator. */
-			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
-			if( tokenIdx >= TOKEN_BUF_LEN ) {
-				throw new ParseException( ParseException.Error.TOKEN_TOO_LONG );
+			if( tokenIdx >= tokenBuf.length ) {
+				growTokenBuf();
 			}
+			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
 			nextCharNoEof();
 		}
 		String token = new String( tokenBuf, 0, tokenIdx );
@@ -459,16 +1320,106 @@ public class Parser {
 
 	/* Read a token delimited only by the specified character. */
 	private String token( int delim ) throws IOException, ParseException {
+		scanToken( delim );
+		String str = new String( tokenBuf, 0, tokenIdx );
+		tokenIdx = 0;
+		return str;
+	}
+
+	/* Read a token delimited only by the specified character into the token buffer. */
+	private void scanToken( int delim ) throws IOException, ParseException {
 		while( currentChar != delim ) {
+			if( tokenIdx >= tokenBuf.length ) {
+				growTokenBuf();
+			}
 			tokenBuf[ tokenIdx++ ] = ( char ) currentChar;
-			if( tokenIdx >= TOKEN_BUF_LEN ) {
-				throw new ParseException( ParseException.Error.TOKEN_TOO_LONG );
+			scanRun( delim, delim, tokenBuf.length );
+			nextCharNoEof();
+		}
+	}
+
+	/* Skip a token delimited only by the specified character. */
+	private void skipToken( int delim ) throws IOException, ParseException {
+		while( currentChar != delim ) {
+			skipRun( delim, delim );
+			nextCharNoEof();
+		}
+	}
+
+	/* Skip a declaration from its name to the closing '>', including any quoted parameters, comments and subset. */
+	private void skipDeclaration() throws IOException, ParseException {
+		if( currentChar <= 32 ) {
+			throw new ParseException( ParseException.Error.INVALID_DECLARATION );
+		}
+		int level = 0;
+		while( currentChar != '>' || level > 0 ) {
+			if( currentChar == '"' || currentChar == '\'' ) {
+				int delim = currentChar;
+				nextCharNoEof();
+				skipToken( delim );
+			} else if( currentChar == '-' ) {
+				nextCharNoEof();
+				if( currentChar == '-' ) {
+					commentSeparator();
+				}
+				continue;
+			} else if( currentChar == '[' ) {
+				level++;
+			} else if( currentChar == ']' ) {
+				level--;
 			}
 			nextCharNoEof();
 		}
-		String str = new String( tokenBuf, 0, tokenIdx );
+	}
+
+	/*
+		Advance past the characters following the current character in the input buffer,
+		until either delimiter or the end of the buffered input, without copying them.
+	*/
+	private void skipRun( int delim1, int delim2 ) {
+		char[] buf = inputBuf;
+		int idx = inputIdx, end = inputLen;
+		while( idx < end && buf[ idx ] != delim1 && buf[ idx ] != delim2 ) {
+			idx++;
+		}
+		inputIdx = idx;
+	}
+
+	/*
+		Copy the characters following the current character from the input buffer into the
+		token buffer, until either delimiter, the end of the buffered input, or the token
+		buffer reaches the specified length. The delimiter is left to be read by nextChar().
+	*/
+	private void scanRun( int delim1, int delim2, int length ) {
+		char[] buf = inputBuf;
+		int start = inputIdx, end = Math.min( inputLen, start + length - tokenIdx ), idx = start;
+		while( idx < end ) {
+			char chr = buf[ idx ];
+			if( chr == delim1 || chr == delim2 ) {
+				break;
+			}
+			idx++;
+		}
+		System.arraycopy( buf, start, tokenBuf, tokenIdx, idx - start );
+		tokenIdx += idx - start;
+		inputIdx = idx;
+	}
+
+	/* Double the length of the token buffer, unless it has reached the maximum token length. */
+	private void growTokenBuf() throws ParseException {
+		if( tokenBuf.length >= maxTokenLength ) {
+			throw new ParseException( ParseException.Error.TOKEN_TOO_LONG );
+		}
+		tokenBuf = Arrays.copyOf( tokenBuf, Math.min( tokenBuf.length * 2, maxTokenLength ) );
+		tokenView = CharBuffer.wrap( tokenBuf );
+	}
+
+	/* Return a view of the token buffer, which is valid until the next token is read. */
+	private CharBuffer tokenView() {
+		tokenView.clear();
+		tokenView.limit( tokenIdx );
 		tokenIdx = 0;
-		return str;
+		return tokenView;
 	}
 
 	private void whitespace() throws IOException, ParseException {
@@ -478,18 +1429,19 @@ public class Parser {
 	}
 
 	private void flushCharacters() throws ParseException {
-		handler.characters( new String( tokenBuf, 0, tokenIdx ) );
-		tokenIdx = 0;
+		if( ( eventMask & CHARACTERS ) != 0 ) {
+			handler.characters( tokenView() );
+		} else {
+			/* Characters expanded from references that are not required. */
+			tokenIdx = 0;
+		}
 	}
 
-	private void nextChar() throws IOException {
+	private void nextChar() throws IOException, ParseException {
 		if( ( inputIdx >= inputLen ) && !fillInputBuf() ) {
 			currentChar = -1;
 		} else {
 			currentChar = inputBuf[ inputIdx++ ];
-			if( currentChar == 10 ) {
-				currentLine++;
-			}
 		}
 	}
 	
@@ -500,9 +1452,26 @@ public class Parser {
 		}
 	}
 	
-	private boolean fillInputBuf() throws IOException {
-		inputIdx = 0;
-		inputLen = input.read( inputBuf, 0, INPUT_BUF_LEN );
-		return inputLen > 0;
+	private boolean fillInputBuf() throws IOException, ParseException {
+		if( push ) {
+			if( finished ) {
+				return false;
+			}
+			throw UNDERFLOW;
+		}
+		checkDeadline();
+		discardInput( inputLen );
+		inputIdx = inputLen = 0;
+		if( byteInput != null ) {
+			bufferByteOffset = byteInput.getPosition();
+		}
+		int count = input.read( inputBuf, 0, INPUT_BUF_LEN );
+		if( count > 0 ) {
+			inputLen = count;
+			if( bufferOffset + inputLen > maxDocumentLength ) {
+				throw new ParseException( ParseException.Error.DOCUMENT_TOO_LONG );
+			}
+		}
+		return count > 0;
 	}
 }
@@ -0,0 +1,130 @@
+package arser;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+	A ContentModel that simulates the NFA of another model using bitsets.<p>
+	The token positions of the model are numbered, and the first, last and follow
+	sets are calculated once and shared by all copies, so that each shift is a
+	single pass of OR and AND operations over the set of marked positions.
+	This is an alternative to an Automaton for models that would require too
+	many states, and may be selected explicitly by passing an instance to the
+	ElementDecl constructor.
+*/
+public class PositionModel implements ContentModel {
+	private ContentModel source;
+	private Map<String,long[]> matches;
+	private long[][] follow;
+	private long[] first, last, any, state, next;
+	private boolean nullable;
+
+	/**
+		@param model The model to simulate, which must be built only from the
+		ContentModel implementations in this package.
+		@throws IllegalArgumentException if the model cannot be analyzed.
+	*/
+	public PositionModel( ContentModel model ) {
+		Positions positions = Positions.analyze( model );
+		if( positions == null ) {
+			throw new IllegalArgumentException( "Unable to number positions of content model: " + model );
+		}
+		source = model;
+		matches = new HashMap<String,long[]>();
+		follow = new long[ positions.size() ][];
+		for( int position = 0; position < positions.size(); position++ ) {
+			String token = positions.token( position );
+			if( token != null && !matches.containsKey( token ) ) {
+				matches.put( token, positions.match( token ) );
+			}
+			follow[ position ] = positions.follow( position );
+		}
+		first = positions.first();
+		last = positions.last();
+		any = positions.match( "" );
+		nullable = positions.nullable();
+		state = new long[ positions.words() ];
+		next = new long[ positions.words() ];
+	}
+
+	private PositionModel( PositionModel model ) {
+		source = model.source;
+		matches = model.matches;
+		follow = model.follow;
+		first = model.first;
+		last = model.last;
+		any = model.any;
+		nullable = model.nullable;
+		state = new long[ model.state.length ];
+		next = new long[ model.next.length ];
+	}
+
+	public void reset() {
+		for( int idx = 0; idx < state.length; idx++ ) {
+			state[ idx ] = 0;
+		}
+	}
+
+	public boolean empty() {
+		return nullable;
+	}
+
+	public boolean marked( boolean recursive ) {
+		boolean marked = false;
+		for( int idx = 0; idx < state.length; idx++ ) {
+			if( recursive ) {
+				marked |= state[ idx ] != 0;
+			} else {
+				marked |= ( state[ idx ] & last[ idx ] ) != 0;
+			}
+		}
+		return marked;
+	}
+
+	public boolean shift( String token, boolean mark ) {
+		long[] match = matches.get( token );
+		if( match == null ) {
+			match = matches.get( token.toLowerCase( Locale.ROOT ) );
+			if( match == null ) {
+				match = any;
+			}
+		}
+		for( int idx = 0; idx < next.length; idx++ ) {
+			next[ idx ] = mark ? first[ idx ] : 0;
+		}
+		for( int word = 0; word < state.length; word++ ) {
+			long bits = state[ word ];
+			while( bits != 0 ) {
+				long[] followSet = follow[ ( word << 6 ) + Long.numberOfTrailingZeros( bits ) ];
+				for( int idx = 0; idx < next.length; idx++ ) {
+					next[ idx ] |= followSet[ idx ];
+				}
+				bits &= bits - 1;
+			}
+		}
+		boolean marked = false;
+		for( int idx = 0; idx < state.length; idx++ ) {
+			state[ idx ] = next[ idx ] & match[ idx ];
+			marked |= ( state[ idx ] & last[ idx ] ) != 0;
+		}
+		return marked;
+	}
+
+	public ContentModel copy() {
+		return new PositionModel( this );
+	}
+
+	public String toString() {
+		return source.toString();
+	}
+
+	public int precedence() {
+		return source.precedence();
+	}
+
+	/** @return the model being simulated. */
+	public ContentModel getModel() {
+		return source;
+	}
+}
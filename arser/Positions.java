@@ -0,0 +1,164 @@
+package arser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+	The token positions of a ContentModel tree, as used by the Glushkov construction.<p>
+	Each TokenModel or AnyTokenModel leaf is numbered, and the sets of positions that
+	may begin or end the model, and that may follow each position, are stored as
+	bitsets of longs.
+*/
+class Positions {
+	private List<String> tokens = new ArrayList<String>();
+	private List<long[]> follow;
+	private long[] first, last;
+	private boolean nullable;
+	private int words;
+
+	/**
+		@return the positions of the specified model, or null if the model
+		contains a ContentModel implementation that cannot be analyzed.
+	*/
+	public static Positions analyze( ContentModel model ) {
+		Positions positions = new Positions();
+		if( !positions.number( model ) ) {
+			return null;
+		}
+		positions.words = ( positions.tokens.size() + 63 ) / 64;
+		positions.follow = new ArrayList<long[]>( positions.tokens.size() );
+		for( int idx = 0; idx < positions.tokens.size(); idx++ ) {
+			positions.follow.add( new long[ positions.words ] );
+		}
+		positions.first = new long[ positions.words ];
+		positions.last = new long[ positions.words ];
+		int[] counter = new int[ 1 ];
+		positions.nullable = positions.build( model, counter, positions.first, positions.last );
+		return positions;
+	}
+
+	/** @return the number of positions. */
+	public int size() {
+		return tokens.size();
+	}
+
+	/** @return the number of longs in each bitset. */
+	public int words() {
+		return words;
+	}
+
+	/** @return the token at the specified position, or null if it matches any token. */
+	public String token( int position ) {
+		return tokens.get( position );
+	}
+
+	/** @return the positions that may match the first token. */
+	public long[] first() {
+		return first;
+	}
+
+	/** @return the positions that may match the last token. */
+	public long[] last() {
+		return last;
+	}
+
+	/** @return the positions that may follow the specified position. */
+	public long[] follow( int position ) {
+		return follow.get( position );
+	}
+
+	/** @return true if the model can be satisfied with no input. */
+	public boolean nullable() {
+		return nullable;
+	}
+
+	/** @return the positions that match the specified lower-case token. */
+	public long[] match( String token ) {
+		long[] match = new long[ words ];
+		for( int idx = 0; idx < tokens.size(); idx++ ) {
+			String value = tokens.get( idx );
+			if( value == null || value.equals( token ) ) {
+				match[ idx >> 6 ] |= 1L << idx;
+			}
+		}
+		return match;
+	}
+
+	/* Assign a number to each leaf, in the order they would be visited by build(). */
+	private boolean number( ContentModel model ) {
+		if( model instanceof TokenModel ) {
+			tokens.add( ((TokenModel)model).getValue() );
+		} else if( model instanceof AnyTokenModel ) {
+			tokens.add( null );
+		} else if( model instanceof SequenceModel ) {
+			return number( ((SequenceModel)model).getLeftModel() )
+				&& number( ((SequenceModel)model).getRightModel() );
+		} else if( model instanceof AlternativeModel ) {
+			return number( ((AlternativeModel)model).getLeftModel() )
+				&& number( ((AlternativeModel)model).getRightModel() );
+		} else if( model instanceof RepetitionModel ) {
+			return number( ((RepetitionModel)model).getModel() );
+		} else if( model instanceof OptionalModel ) {
+			return number( ((OptionalModel)model).getModel() );
+		} else if( !( model instanceof EmptyModel ) ) {
+			return false;
+		}
+		return true;
+	}
+
+	/* Calculate the first and last sets of the model, and add to the follow sets. Returns true if nullable. */
+	private boolean build( ContentModel model, int[] counter, long[] firstSet, long[] lastSet ) {
+		if( model instanceof TokenModel || model instanceof AnyTokenModel ) {
+			int position = counter[ 0 ]++;
+			firstSet[ position >> 6 ] |= 1L << position;
+			lastSet[ position >> 6 ] |= 1L << position;
+			return false;
+		} else if( model instanceof SequenceModel ) {
+			long[] leftFirst = new long[ words ], leftLast = new long[ words ];
+			long[] rightFirst = new long[ words ], rightLast = new long[ words ];
+			boolean leftNullable = build( ((SequenceModel)model).getLeftModel(), counter, leftFirst, leftLast );
+			boolean rightNullable = build( ((SequenceModel)model).getRightModel(), counter, rightFirst, rightLast );
+			addFollow( leftLast, rightFirst );
+			or( firstSet, leftFirst );
+			if( leftNullable ) {
+				or( firstSet, rightFirst );
+			}
+			or( lastSet, rightLast );
+			if( rightNullable ) {
+				or( lastSet, leftLast );
+			}
+			return leftNullable && rightNullable;
+		} else if( model instanceof AlternativeModel ) {
+			boolean leftNullable = build( ((AlternativeModel)model).getLeftModel(), counter, firstSet, lastSet );
+			boolean rightNullable = build( ((AlternativeModel)model).getRightModel(), counter, firstSet, lastSet );
+			return leftNullable || rightNullable;
+		} else if( model instanceof RepetitionModel ) {
+			long[] contentFirst = new long[ words ], contentLast = new long[ words ];
+			boolean contentNullable = build( ((RepetitionModel)model).getModel(), counter, contentFirst, contentLast );
+			addFollow( contentLast, contentFirst );
+			or( firstSet, contentFirst );
+			or( lastSet, contentLast );
+			return contentNullable || model.empty();
+		} else if( model instanceof OptionalModel ) {
+			build( ((OptionalModel)model).getModel(), counter, firstSet, lastSet );
+			return true;
+		}
+		/* EmptyModel. */
+		return true;
+	}
+
+	/* Add the positions in the second set to the follow sets of the positions in the first. */
+	private void addFollow( long[] from, long[] to ) {
+		for( int idx = 0; idx < tokens.size(); idx++ ) {
+			if( ( from[ idx >> 6 ] & ( 1L << idx ) ) != 0 ) {
+				or( follow.get( idx ), to );
+			}
+		}
+	}
+
+	private static void or( long[] dest, long[] src ) {
+		for( int idx = 0; idx < dest.length; idx++ ) {
+			dest[ idx ] |= src[ idx ];
+		}
+	}
+}
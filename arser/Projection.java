@@ -0,0 +1,147 @@
+
+package arser;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+	The elements of a Doctype whose content may be skipped when only certain
+	elements are wanted, because no wanted element can occur within them.<p>
+	The elements that may occur within each element are found from its content
+	model and inclusions, and the inclusions of any element it may occur within.
+	An element is skipped if neither it nor any element that may occur within
+	it, directly or indirectly, is wanted. Exclusions are not considered, so an
+	element may be kept unnecessarily. Only elements that are not empty and that
+	may not be closed automatically are skipped, so that the end of their content
+	is always marked by an end tag. Within skipped content, such elements are kept
+	on a stack, so that an empty end tag closes the innermost, and an end tag
+	closes the innermost of that name.<p>
+	A Parser with a Projection passes on the open and close events of a skipped
+	element, but only finds the end of its content, which is not validated,
+	so errors within it may not be reported. A Validator with the same Projection
+	does not require the content of a skipped element to be complete.
+*/
+public class Projection {
+	private Set<String> skipped = new HashSet<String>();
+	/* The canonical names of the elements that are not empty and whose end tags may not be omitted. */
+	private Map<String, String> ended = new HashMap<String, String>();
+
+	/**
+		@param doctype The Doctype declaring the elements.
+		@param names The names of the wanted elements.
+	*/
+	public Projection( Doctype doctype, Collection<String> names ) {
+		int count = doctype.getElementCount();
+		BitSet[] children = new BitSet[ count ];
+		BitSet[] included = new BitSet[ count ];
+		for( int id = 0; id < count; id++ ) {
+			children[ id ] = new BitSet( count );
+			included[ id ] = new BitSet( count );
+			ElementDecl elementDecl = doctype.getElementDecl( id );
+			if( !elementDecl.isEmpty() ) {
+				addTokens( doctype, elementDecl.getContentModel(), children[ id ] );
+				long[] inclusions = doctype.getInclusions( id );
+				if( inclusions != null ) {
+					children[ id ].or( BitSet.valueOf( inclusions ) );
+				}
+			}
+		}
+		/* Propagate the inclusions of each element to the elements that may occur within it. */
+		boolean changed = true;
+		while( changed ) {
+			changed = false;
+			for( int id = 0; id < count; id++ ) {
+				if( doctype.getElementDecl( id ).isEmpty() ) {
+					continue;
+				}
+				BitSet inherited = ( BitSet ) included[ id ].clone();
+				long[] inclusions = doctype.getInclusions( id );
+				if( inclusions != null ) {
+					inherited.or( BitSet.valueOf( inclusions ) );
+				}
+				children[ id ].or( included[ id ] );
+				for( int child = children[ id ].nextSetBit( 0 ); child >= 0; child = children[ id ].nextSetBit( child + 1 ) ) {
+					int cardinality = included[ child ].cardinality();
+					included[ child ].or( inherited );
+					changed |= included[ child ].cardinality() != cardinality;
+				}
+			}
+		}
+		/* Find the elements that are wanted or may contain a wanted element. */
+		BitSet wanted = new BitSet( count );
+		for( String name : names ) {
+			int id = doctype.getElementId( name.toLowerCase( Locale.ROOT ) );
+			if( id >= 0 ) {
+				wanted.set( id );
+			}
+		}
+		changed = true;
+		while( changed ) {
+			changed = false;
+			for( int id = 0; id < count; id++ ) {
+				if( !wanted.get( id ) && children[ id ].intersects( wanted ) ) {
+					wanted.set( id );
+					changed = true;
+				}
+			}
+		}
+		for( int id = 0; id < count; id++ ) {
+			ElementDecl elementDecl = doctype.getElementDecl( id );
+			if( !elementDecl.isEmpty() && !elementDecl.mayOmit() ) {
+				ended.put( elementDecl.getName(), elementDecl.getName() );
+				if( !wanted.get( id ) ) {
+					skipped.add( elementDecl.getName() );
+				}
+			}
+		}
+	}
+
+	/**
+		@return true if the content of the element with the specified name is skipped.
+	*/
+	public boolean isSkipped( CharSequence name ) {
+		/* Declared names are usually passed as the canonical lower-case String. */
+		return contains( skipped, name );
+	}
+
+	/* Return the canonical name of the element with the specified name if it is not empty and its end tag may not be omitted, or null. */
+	String getEndTagName( CharSequence name ) {
+		String key = name.toString();
+		String endName = ended.get( key );
+		return endName != null ? endName : ended.get( key.toLowerCase( Locale.ROOT ) );
+	}
+
+	private static boolean contains( Set<String> names, CharSequence name ) {
+		String key = name.toString();
+		return names.contains( key ) || names.contains( key.toLowerCase( Locale.ROOT ) );
+	}
+
+	/* Add the ids of the elements named by the tokens of the model, or all elements for a model that cannot be analyzed. */
+	private static void addTokens( Doctype doctype, ContentModel model, BitSet ids ) {
+		if( model instanceof TokenModel ) {
+			int id = doctype.getElementId( ((TokenModel)model).getValue() );
+			if( id >= 0 ) {
+				ids.set( id );
+			}
+		} else if( model instanceof SequenceModel ) {
+			addTokens( doctype, ((SequenceModel)model).getLeftModel(), ids );
+			addTokens( doctype, ((SequenceModel)model).getRightModel(), ids );
+		} else if( model instanceof AlternativeModel ) {
+			addTokens( doctype, ((AlternativeModel)model).getLeftModel(), ids );
+			addTokens( doctype, ((AlternativeModel)model).getRightModel(), ids );
+		} else if( model instanceof RepetitionModel ) {
+			addTokens( doctype, ((RepetitionModel)model).getModel(), ids );
+		} else if( model instanceof OptionalModel ) {
+			addTokens( doctype, ((OptionalModel)model).getModel(), ids );
+		} else if( model instanceof PositionModel ) {
+			addTokens( doctype, ((PositionModel)model).getModel(), ids );
+		} else if( model != null && !( model instanceof EmptyModel ) ) {
+			ids.set( 0, doctype.getElementCount() );
+		}
+	}
+}
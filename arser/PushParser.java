@@ -0,0 +1,212 @@
+package arser;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+	A non-blocking parser to which input is passed as it becomes available,
+	for example from a selector loop, rather than read from a Reader.<p>
+	Each call to feed() parses as far as the input allows and passes every
+	complete construct onto the handler before returning. A construct that is
+	interrupted by the end of the input is parsed again from its start once
+	enough further input has been fed, and finish() must be called at the end
+	of the document. The events are the same as those of Parser.parse().<p>
+	Bytes are decoded with a CharsetDecoder, so multi-byte sequences may be
+	split between calls, and malformed input is replaced with U+FFFD.
+	The position is that of the characters decoded.
+*/
+public class PushParser implements Locator {
+	private static final int CHAR_BUF_LEN = 8192;
+
+	private Parser parser = new Parser();
+	private TokenHandler handler;
+	private CharsetDecoder decoder;
+	private ByteBuffer byteBuf;
+	private CharBuffer charBuf = CharBuffer.allocate( CHAR_BUF_LEN );
+	private boolean begun;
+
+	/**
+		@param handler The handler to receive the markup events.
+	*/
+	public PushParser( Handler handler ) {
+		this( new HandlerAdapter( handler ) );
+	}
+
+	/**
+		@param handler The handler to receive the markup events.
+	*/
+	public PushParser( TokenHandler handler ) {
+		this.handler = handler;
+	}
+
+	/** @see Parser#setDoctype */
+	public void setDoctype( Doctype doctype ) {
+		parser.setDoctype( doctype );
+	}
+
+	/** @see Parser#setMaxTokenLength */
+	public void setMaxTokenLength( int length ) {
+		parser.setMaxTokenLength( length );
+	}
+
+	/** @see Parser#setExpandEntities */
+	public void setExpandEntities( boolean expand ) {
+		parser.setExpandEntities( expand );
+	}
+
+	/** @see Parser#setCoalesceCharacters */
+	public void setCoalesceCharacters( boolean coalesce ) {
+		parser.setCoalesceCharacters( coalesce );
+	}
+
+	/** @see Parser#setEventMask */
+	public void setEventMask( int mask ) {
+		parser.setEventMask( mask );
+	}
+
+	/**
+		@return the number of characters of the current document that were parsed
+		again because the input ended within a construct. Comments, marked sections
+		and processing-instructions resume from where the input ended, so this stays
+		small however the input is divided.
+	*/
+	public long getRescanLength() {
+		return parser.rescanLength;
+	}
+
+	/** @see Parser#setLimits */
+	public void setLimits( Limits limits ) {
+		parser.setLimits( limits );
+	}
+
+	/** @see Parser#setDeadline */
+	public void setDeadline( long millis ) {
+		parser.setDeadline( millis );
+	}
+
+	/** @see Parser#stop */
+	public void stop() {
+		parser.stop();
+	}
+
+	/** @see Parser#setProjection */
+	public void setProjection( Projection projection ) {
+		parser.setProjection( projection );
+	}
+
+	/** @see Parser#setChunkInstructions */
+	public void setChunkInstructions( boolean chunk ) {
+		parser.setChunkInstructions( chunk );
+	}
+
+	/** @see Locator */
+	public long getOffset() {
+		return parser.getOffset();
+	}
+
+	/** @see Locator */
+	public long getByteOffset() {
+		return parser.getByteOffset();
+	}
+
+	/** @see Locator */
+	public int getLineNumber() {
+		return parser.getLineNumber();
+	}
+
+	/** @see Locator */
+	public int getColumnNumber() {
+		return parser.getColumnNumber();
+	}
+
+	/**
+		Set the encoding used to decode bytes passed to feed(). This must be done
+		before the first bytes are fed. The default is ISO-8859-1.
+	*/
+	public void setEncoding( String encoding ) {
+		decoder = Charset.forName( encoding ).newDecoder()
+			.onMalformedInput( CodingErrorAction.REPLACE )
+			.onUnmappableCharacter( CodingErrorAction.REPLACE );
+	}
+
+	/**
+		Parse the specified characters, following any previously fed.
+	*/
+	public void feed( char[] input, int offset, int length ) throws ParseException {
+		if( !begun ) {
+			parser.begin( handler );
+			begun = true;
+		}
+		parser.push( input, offset, length, false );
+	}
+
+	/**
+		Parse the specified bytes, following any previously fed.
+	*/
+	public void feed( byte[] input, int offset, int length ) throws ParseException {
+		feed( ByteBuffer.wrap( input, offset, length ) );
+	}
+
+	/**
+		Parse the bytes from the position to the limit of the specified buffer,
+		following any previously fed. The buffer position is advanced to the limit.
+	*/
+	public void feed( ByteBuffer input ) throws ParseException {
+		if( decoder == null ) {
+			setEncoding( "ISO-8859-1" );
+		}
+		if( byteBuf == null ) {
+			byteBuf = ByteBuffer.allocate( CHAR_BUF_LEN );
+		}
+		while( input.hasRemaining() ) {
+			/* Copy into the byte buffer after any incomplete sequence from the previous call. */
+			int count = Math.min( input.remaining(), byteBuf.remaining() );
+			ByteBuffer slice = input.duplicate();
+			slice.limit( slice.position() + count );
+			byteBuf.put( slice );
+			input.position( input.position() + count );
+			byteBuf.flip();
+			decode( false );
+			byteBuf.compact();
+		}
+	}
+
+	/**
+		Parse the end of the document. The parser may not be used again.
+	*/
+	public void finish() throws ParseException {
+		if( !begun ) {
+			parser.begin( handler );
+			begun = true;
+		}
+		if( decoder != null && byteBuf != null ) {
+			byteBuf.flip();
+			decode( true );
+			decoder.flush( charBuf );
+			feedChars();
+		}
+		parser.push( charBuf.array(), 0, 0, true );
+	}
+
+	/* Decode the byte buffer and feed the characters to the parser. */
+	private void decode( boolean last ) throws ParseException {
+		while( true ) {
+			CoderResult result = decoder.decode( byteBuf, charBuf, last );
+			feedChars();
+			if( !result.isOverflow() ) {
+				break;
+			}
+		}
+	}
+
+	private void feedChars() throws ParseException {
+		if( charBuf.position() > 0 ) {
+			feed( charBuf.array(), 0, charBuf.position() );
+			charBuf.clear();
+		}
+	}
+}
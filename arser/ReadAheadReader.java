@@ -0,0 +1,137 @@
+package arser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+	A Reader that reads from another Reader on a background thread, so that
+	the input is read and decoded while the caller processes what has already
+	been read.<p>
+	The background thread fills a ring of buffers ahead of the caller, each being
+	filled completely unless the end of the input is reached, and waits while
+	all of them are full. Exceptions thrown by the underlying Reader are thrown
+	by read() once the preceding input has been consumed.
+*/
+public class ReadAheadReader extends Reader {
+	private Reader input;
+	private BlockingQueue<Buffer> free = new LinkedBlockingQueue<Buffer>();
+	private BlockingQueue<Buffer> filled = new LinkedBlockingQueue<Buffer>();
+	private Buffer current;
+	private int index;
+	private volatile boolean stopped;
+	private Thread thread;
+
+	/**
+		@param reader The Reader to read from.
+		@param bufferLength The length of each buffer in characters.
+		@param bufferCount The number of buffers, at least two, one of which is being read by the caller.
+	*/
+	public ReadAheadReader( Reader reader, int bufferLength, int bufferCount ) {
+		input = reader;
+		for( int idx = 0, count = Math.max( bufferCount, 2 ); idx < count; idx++ ) {
+			free.add( new Buffer( Math.max( bufferLength, 1 ) ) );
+		}
+		thread = new Thread( new Runnable() {
+			public void run() {
+				readAhead();
+			}
+		}, "ReadAheadReader" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	public int read( char[] buf, int off, int len ) throws IOException {
+		if( len <= 0 ) {
+			return 0;
+		}
+		if( current != null && index >= current.length && !current.end && current.error == null ) {
+			/* The current buffer has been consumed, pass it back to be filled again. */
+			free.add( current );
+			current = null;
+		}
+		if( current == null ) {
+			try {
+				current = filled.take();
+			} catch( InterruptedException interruptedException ) {
+				throw new InterruptedIOException();
+			}
+			index = 0;
+		}
+		if( index >= current.length ) {
+			if( current.error != null ) {
+				throw current.error;
+			}
+			return -1;
+		}
+		int count = Math.min( len, current.length - index );
+		System.arraycopy( current.chars, index, buf, off, count );
+		index += count;
+		return count;
+	}
+
+	/** Stop reading ahead, and wait for any read in progress, without closing the underlying Reader. */
+	public void stop() {
+		stopped = true;
+		/* Wake the background thread if it is waiting for a buffer. */
+		free.add( new Buffer( 0 ) );
+		try {
+			thread.join();
+		} catch( InterruptedException interruptedException ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Stop reading ahead and close the underlying Reader. */
+	public void close() throws IOException {
+		stop();
+		input.close();
+	}
+
+	/* Fill free buffers from the input until the end of the input, an exception, or stop() is called. */
+	private void readAhead() {
+		try {
+			while( !stopped ) {
+				Buffer buffer = free.take();
+				if( stopped ) {
+					break;
+				}
+				buffer.length = 0;
+				try {
+					while( buffer.length < buffer.chars.length ) {
+						int count = input.read( buffer.chars, buffer.length, buffer.chars.length - buffer.length );
+						if( count < 0 ) {
+							buffer.end = true;
+							break;
+						}
+						buffer.length += count;
+					}
+				} catch( IOException ioException ) {
+					buffer.error = ioException;
+				} catch( RuntimeException runtimeException ) {
+					buffer.error = new IOException( runtimeException );
+				}
+				filled.add( buffer );
+				if( buffer.end || buffer.error != null ) {
+					break;
+				}
+			}
+		} catch( InterruptedException interruptedException ) {
+			/* Stop reading. */
+		}
+	}
+
+	/* A buffer of characters, which is the last if the end of the input or an exception was encountered. */
+	private static class Buffer {
+		private char[] chars;
+		private int length;
+		private boolean end;
+		private IOException error;
+
+		public Buffer( int bufferLength ) {
+			chars = new char[ bufferLength ];
+		}
+	}
+}
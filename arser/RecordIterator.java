@@ -0,0 +1,226 @@
+package arser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+	Iterates over the records of a document, such as the elements of a long
+	sequence within the root element, loading each in turn as an Element while
+	the rest of the document is parsed and validated without being kept.<p>
+	A record is an element with one of the specified names that is not within
+	another record. Only the input and events of the current record are held in
+	memory, so the memory used is bounded by the largest record.<p>
+	By default the Element, Characters and Attribute objects of each record are
+	reused for the following records once hasNext() or next() is called again,
+	so a record must not be kept unless setRecycle( false ) is called. The Iterator
+	methods throw a RuntimeException whose cause is the IOException or ParseException
+	thrown by the Parser or Validator.
+*/
+public class RecordIterator implements Iterator<Element> {
+	private Cursor cursor;
+	private Doctype doctype;
+	private Set<String> recordNames = new HashSet<String>();
+	private boolean recycle = true;
+	/* The record read ahead by hasNext(), and the last record returned, to be recycled. */
+	private Element record, previous;
+	private ArrayDeque<Element> elements = new ArrayDeque<Element>();
+	private ArrayDeque<Characters> characters = new ArrayDeque<Characters>();
+	private ArrayDeque<Attribute> attributes = new ArrayDeque<Attribute>();
+	private ArrayDeque<Element> stack = new ArrayDeque<Element>();
+
+	/**
+		@param input The document.
+		@param doctype The Doctype used to validate the document.
+		@param names The names of the record elements.
+	*/
+	public RecordIterator( Reader input, Doctype doctype, Collection<String> names ) throws ParseException {
+		cursor = new Cursor( input, doctype );
+		this.doctype = doctype;
+		for( String name : names ) {
+			recordNames.add( name.toLowerCase( Locale.ROOT ) );
+		}
+	}
+
+	/** If true, the default, the objects of each record are reused for the following records. */
+	public void setRecycle( boolean reuse ) {
+		recycle = reuse;
+	}
+
+	/**
+		@return the next record, or null if there are no more.
+	*/
+	public Element nextRecord() throws IOException, ParseException {
+		Element element = record != null ? record : read();
+		record = null;
+		previous = element;
+		return element;
+	}
+
+	public boolean hasNext() {
+		try {
+			if( record == null ) {
+				record = read();
+			}
+			return record != null;
+		} catch( IOException ioException ) {
+			throw new RuntimeException( ioException );
+		} catch( ParseException parseException ) {
+			throw new RuntimeException( parseException );
+		}
+	}
+
+	public Element next() {
+		if( !hasNext() ) {
+			throw new NoSuchElementException();
+		}
+		Element element = record;
+		record = null;
+		previous = element;
+		return element;
+	}
+
+	/**
+		@return a sequential Stream of the remaining records. Recycling is disabled,
+		as the records of a Stream may be collected or compared with each other.
+	*/
+	public Stream<Element> stream() {
+		recycle = false;
+		return StreamSupport.stream( Spliterators.spliteratorUnknownSize( this, Spliterator.ORDERED | Spliterator.NONNULL ), false );
+	}
+
+	/** Stop parsing and close the input. */
+	public void close() throws IOException {
+		cursor.close();
+	}
+
+	/* Recycle the previous record, and load the next record from the input, or return null if there are no more. */
+	private Element read() throws IOException, ParseException {
+		if( previous != null && recycle ) {
+			recycle( previous );
+		}
+		previous = null;
+		while( cursor.hasNext() ) {
+			if( cursor.next() == Cursor.OPEN && recordNames.contains( cursor.getName().toString() ) ) {
+				return load();
+			}
+		}
+		return null;
+	}
+
+	/* Load the element at the current open event and its content. */
+	private Element load() throws IOException, ParseException {
+		Element root = element( null );
+		if( root.getElementDecl().isEmpty() ) {
+			return root;
+		}
+		stack.clear();
+		stack.push( root );
+		while( cursor.hasNext() ) {
+			List<Node> children = stack.peek().getChildren();
+			switch( cursor.next() ) {
+				case Cursor.OPEN:
+					Element element = element( stack.peek() );
+					children.add( element );
+					if( !element.getElementDecl().isEmpty() ) {
+						stack.push( element );
+					}
+					break;
+				case Cursor.CLOSE:
+					stack.pop();
+					if( stack.isEmpty() ) {
+						return root;
+					}
+					break;
+				case Cursor.CHARACTERS:
+					children.add( characters( null, cursor.getText().toString() ) );
+					break;
+				case Cursor.SECTION:
+					children.add( characters( cursor.getParam(), cursor.getText().toString() ) );
+					break;
+				case Cursor.COMMENT:
+					children.add( new Comment( cursor.getText().toString() ) );
+					break;
+				case Cursor.PI:
+					children.add( new ProcessingInstruction( cursor.getText().toString() ) );
+					break;
+				case Cursor.ENTITY:
+					children.add( new Entity( cursor.getText().toString() ) );
+					break;
+				case Cursor.DECLARATION:
+					children.add( cursor.getDeclaration() );
+					break;
+			}
+		}
+		/* The Validator reports an element that is not closed at the end of the document. */
+		return root;
+	}
+
+	/* Return an Element for the current open event, reusing a recycled one if possible. */
+	private Element element( Node parent ) {
+		ElementDecl elementDecl = doctype.getElementDecl( cursor.getName().toString() );
+		Element element = elements.poll();
+		if( element != null ) {
+			element.reset( elementDecl, parent );
+		} else {
+			element = new Element( elementDecl, parent );
+		}
+		List<Attribute> eventAttributes = cursor.getAttributes();
+		List<Attribute> elementAttributes = element.getAttributes();
+		if( eventAttributes instanceof AttributeList ) {
+			/* Copy the names and values, rather than creating an Attribute for each. */
+			AttributeList attributeList = ( AttributeList ) eventAttributes;
+			for( int index = 0, size = attributeList.size(); index < size; index++ ) {
+				elementAttributes.add( attribute( attributeList.getAttributeDecl( index ), attributeList.getName( index ), attributeList.getValue( index ) ) );
+			}
+		} else {
+			for( Attribute attribute : eventAttributes ) {
+				elementAttributes.add( attribute( attribute.getAttributeDecl(), attribute.getName(), attribute.getValue() ) );
+			}
+		}
+		return element;
+	}
+
+	private Attribute attribute( AttributeDecl decl, String name, String value ) {
+		Attribute attribute = attributes.poll();
+		if( attribute == null ) {
+			attribute = new Attribute( value );
+		}
+		attribute.reset( decl, name, value );
+		return attribute;
+	}
+
+	private Characters characters( String param, String value ) {
+		Characters chars = characters.poll();
+		if( chars == null ) {
+			return new Characters( param, value );
+		}
+		chars.setParameter( param );
+		chars.setValue( value );
+		return chars;
+	}
+
+	/* Return the objects of the specified record and its content to be reused. */
+	private void recycle( Element element ) {
+		for( Node child : element.getChildren() ) {
+			if( child instanceof Element ) {
+				recycle( ( Element ) child );
+			} else if( child instanceof Characters ) {
+				characters.push( ( Characters ) child );
+			}
+		}
+		attributes.addAll( element.getAttributes() );
+		elements.push( element );
+	}
+}
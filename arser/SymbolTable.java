@@ -0,0 +1,155 @@
+package arser;
+
+import java.util.Arrays;
+
+/**
+	A case-insensitive table of canonical names.<p>
+	Each name is stored once in lower-case, folded a character at a time as
+	for lookups so that every stored name can be found again, and assigned an integer id in the
+	order it was added. Names may be looked up directly from a character buffer,
+	so that the Parser can return the canonical String for a known name without
+	allocating, and later comparisons can be made by id or identity.<p>
+	A SymbolTable may be shared between threads once no more names are added.
+*/
+public class SymbolTable {
+	private String[] names = new String[ 16 ];
+	private int[] hashes = new int[ 16 ];
+	private int[] slots = new int[ 32 ];
+	private int size;
+
+	/**
+		Add the specified name if it is not already present.
+		@return the id of the name.
+	*/
+	public int add( String name ) {
+		int id = getId( name );
+		if( id < 0 ) {
+			name = fold( name );
+			if( size >= names.length ) {
+				names = Arrays.copyOf( names, size * 2 );
+				hashes = Arrays.copyOf( hashes, size * 2 );
+			}
+			id = size++;
+			names[ id ] = name;
+			hashes[ id ] = hash( name );
+			if( size * 2 > slots.length ) {
+				rehash( slots.length * 2 );
+			} else {
+				insert( id );
+			}
+		}
+		return id;
+	}
+
+	/** @return the id of the specified name, ignoring case, or -1 if it is not present. */
+	public int getId( String name ) {
+		int hash = hash( name );
+		int mask = slots.length - 1;
+		for( int slot = hash & mask; slots[ slot ] > 0; slot = ( slot + 1 ) & mask ) {
+			int id = slots[ slot ] - 1;
+			String symbol = names[ id ];
+			if( hashes[ id ] == hash && ( symbol == name || matches( symbol, name ) ) ) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/** @return the id of the name in the specified buffer, ignoring case, or -1 if it is not present. */
+	public int getId( char[] buf, int offset, int length ) {
+		int hash = 0;
+		for( int idx = offset, end = offset + length; idx < end; idx++ ) {
+			hash = 31 * hash + fold( buf[ idx ] );
+		}
+		int mask = slots.length - 1;
+		for( int slot = hash & mask; slots[ slot ] > 0; slot = ( slot + 1 ) & mask ) {
+			int id = slots[ slot ] - 1;
+			if( hashes[ id ] == hash && matches( names[ id ], buf, offset, length ) ) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/** @return the canonical lower-case name with the specified id. */
+	public String getName( int id ) {
+		return names[ id ];
+	}
+
+	/** @return the number of names in the table. */
+	public int size() {
+		return size;
+	}
+
+	private void insert( int id ) {
+		int mask = slots.length - 1;
+		int slot = hashes[ id ] & mask;
+		while( slots[ slot ] > 0 ) {
+			slot = ( slot + 1 ) & mask;
+		}
+		slots[ slot ] = id + 1;
+	}
+
+	private void rehash( int length ) {
+		slots = new int[ length ];
+		for( int id = 0; id < size; id++ ) {
+			insert( id );
+		}
+	}
+
+	private static boolean matches( String symbol, String name ) {
+		int length = symbol.length();
+		if( name.length() != length ) {
+			return false;
+		}
+		for( int idx = 0; idx < length; idx++ ) {
+			if( symbol.charAt( idx ) != fold( name.charAt( idx ) ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches( String symbol, char[] buf, int offset, int length ) {
+		if( symbol.length() != length ) {
+			return false;
+		}
+		for( int idx = 0; idx < length; idx++ ) {
+			if( symbol.charAt( idx ) != fold( buf[ offset + idx ] ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash( String name ) {
+		int hash = 0;
+		for( int idx = 0, length = name.length(); idx < length; idx++ ) {
+			hash = 31 * hash + fold( name.charAt( idx ) );
+		}
+		return hash;
+	}
+
+	/* Convert a name to lower-case a character at a time, returning the same instance if unchanged. */
+	private static String fold( String name ) {
+		for( int idx = 0, length = name.length(); idx < length; idx++ ) {
+			char chr = name.charAt( idx );
+			if( fold( chr ) != chr ) {
+				char[] chars = name.toCharArray();
+				for( ; idx < length; idx++ ) {
+					chars[ idx ] = fold( chars[ idx ] );
+				}
+				return new String( chars );
+			}
+		}
+		return name;
+	}
+
+	/* Convert a character to lower-case, quickly for ASCII. */
+	private static char fold( char chr ) {
+		if( chr < 128 ) {
+			return ( chr >= 'A' && chr <= 'Z' ) ? ( char ) ( chr + 32 ) : chr;
+		}
+		return Character.toLowerCase( chr );
+	}
+}
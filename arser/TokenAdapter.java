@@ -0,0 +1,63 @@
+package arser;
+
+import java.util.List;
+
+/**
+	An implementation of Handler that passes events onto a TokenHandler,
+	the reverse of HandlerAdapter. The doctype event is not passed on.
+*/
+class TokenAdapter implements Handler {
+	private TokenHandler handler;
+
+	public TokenAdapter( TokenHandler h ) {
+		handler = h;
+	}
+
+	/** Pass subsequent events onto the specified handler. */
+	public void setTokenHandler( TokenHandler h ) {
+		handler = h;
+	}
+
+	public void begin() throws ParseException {
+		handler.begin();
+	}
+
+	public void doctype( Doctype doctype ) throws ParseException {
+	}
+
+	public void comment( String comment ) throws ParseException {
+		handler.comment( comment );
+	}
+
+	public void declaration( Declaration declaration ) throws ParseException {
+		handler.declaration( declaration );
+	}
+
+	public void pi( String instruction ) throws ParseException {
+		handler.pi( instruction );
+	}
+
+	public void entity( String name ) throws ParseException {
+		handler.entity( name );
+	}
+
+	public void open( String name, List<Attribute> attributes ) throws ParseException {
+		handler.open( name, attributes );
+	}
+
+	public void characters( String characters ) throws ParseException {
+		handler.characters( characters );
+	}
+
+	public void characters( String param, String characters ) throws ParseException {
+		handler.characters( param, characters );
+	}
+
+	public void close( String name ) throws ParseException {
+		handler.close( name );
+	}
+
+	public void end() throws ParseException {
+		handler.end();
+	}
+}
@@ -0,0 +1,33 @@
+package arser;
+
+/**
+	A low-level alternative to Handler for receiving markup events from the Parser.<p>
+	Names, comments, instructions and character data are passed as CharSequence views
+	into the buffers of the Parser, which are only valid for the duration of the call,
+	so that an implementation that only inspects or discards them need not allocate.
+	A view that must be kept should be converted with toString(). Names that are
+	declared in the Doctype of the Parser are passed as their canonical String.<p>
+	A HandlerAdapter may be used to pass events onto a Handler.
+*/
+public interface TokenHandler {
+	/** Called at the beginning of a document. */
+	public void begin() throws ParseException;
+	/** Called when a comment is encountered. */
+	public void comment( CharSequence comment ) throws ParseException;
+	/** Called when a declaration is encountered. */
+	public void declaration( Declaration declaration ) throws ParseException;
+	/** Called when a processing-instruction is encountered. */
+	public void pi( CharSequence instruction ) throws ParseException;
+	/** Called when an entity reference is encountered. */
+	public void entity( CharSequence name ) throws ParseException;
+	/** Called when an element is encountered. The attribute list may be reused after the call returns. */
+	public void open( CharSequence name, java.util.List<Attribute> attributes ) throws ParseException;
+	/** Called when character data between elements is encountered. */
+	public void characters( CharSequence characters ) throws ParseException;
+	/** Called when characters within a marked section are encountered. */
+	public void characters( CharSequence param, CharSequence characters ) throws ParseException;
+	/** Called when an element is closed. */
+	public void close( CharSequence name ) throws ParseException;
+	/** Called when the end of the document is encountered. */
+	public void end() throws ParseException;
+}
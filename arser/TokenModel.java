@@ -1,6 +1,8 @@
 
 package arser;
 
+import java.util.Locale;
+
 /**
 	A ContentModel that matches a single occurrence of a token.
 */
@@ -9,7 +11,7 @@ public class TokenModel implements ContentModel {
 	private String value;
 	
 	public TokenModel( String token ) {
-		value = token.toLowerCase();
+		value = token.toLowerCase( Locale.ROOT );
 	}
 	
 	public void reset() {
@@ -25,7 +27,7 @@ public class TokenModel implements ContentModel {
 	}
 	
 	public boolean shift( String token, boolean mark ) {
-		return marked = mark && value.equals( token.toLowerCase() );
+		return marked = mark && ( value == token || value.equalsIgnoreCase( token ) );
 	}
 	
 	public ContentModel copy() {
@@ -39,4 +41,9 @@ public class TokenModel implements ContentModel {
 	public int precedence() {
 		return 3;
 	}
+
+	/** @return the lower-case token matched by this model. */
+	public String getValue() {
+		return value;
+	}
 }
@@ -15,6 +15,14 @@ public class Validator implements Handler {
 	private Handler handler;
 	private Context context;
 	private Doctype doctype;
+	private boolean discardWhitespace;
+	private Projection projection;
+	/* In document stream mode, whether the begin event of the current document has been passed on. */
+	private boolean documentStream, inDocument;
+	/* The depth of the open element whose content is skipped, or zero if none. */
+	private int skipDepth;
+	private int maxDepth = Integer.MAX_VALUE;
+	private long maxEvents = Long.MAX_VALUE, events;
 
 	/**
 		Constructor.
@@ -25,9 +33,60 @@ public class Validator implements Handler {
 		context = new Context();
 	}
 
+	/**
+		If true, character data consisting only of whitespace is not passed on
+		when it is within an element declared as element-only, or outside the
+		root element, where it is not significant.
+	*/
+	public void setDiscardWhitespace( boolean discard ) {
+		discardWhitespace = discard;
+	}
+
+	/**
+		If true, the input is a stream of documents, each ending with the close of
+		a top-level element. The handler receives begin and doctype events before the
+		first event of each document and an end event after its top-level element,
+		and the context is reset for the next. Whitespace between documents is not
+		passed on. The default is false, in which case the input is a single document.
+	*/
+	public void setDocumentStream( boolean stream ) {
+		documentStream = stream;
+	}
+
+	/** Set the limits on the nesting depth and the number of events of each document. */
+	public void setLimits( Limits limits ) {
+		maxDepth = limits.getMaxDepth();
+		maxEvents = limits.getMaxEvents();
+	}
+
+	/**
+		Use the same Projection as the Parser, so that the content of skipped
+		elements is not required to be complete, or none if null.
+	*/
+	public void setProjection( Projection proj ) {
+		projection = proj;
+	}
+
+	/* Return the element context, which is modified as the document is validated. */
+	Context getContext() {
+		return context;
+	}
+
+	/* Continue validation from the specified context, which must be for the same Doctype. */
+	void setContext( Context ctx ) {
+		context = ctx;
+	}
+
 	/** @see Handler */
 	public void begin() throws ParseException {
 		try {
+			events = 0;
+			if( documentStream ) {
+				/* The begin event is passed on before the first event of each document. */
+				context.reset();
+				inDocument = false;
+				return;
+			}
 			handler.begin();
 		} catch( ParseException parseException ) {
 			parseException.setLocation( context.toString() );
@@ -37,9 +96,12 @@ public class Validator implements Handler {
 	
 	/** @see Handler */
 	public void doctype( Doctype dt ) throws ParseException {
-		doctype = dt;
 		try {
-			handler.doctype( dt );
+			context.setDoctype( dt );
+			doctype = dt;
+			if( !documentStream || inDocument ) {
+				handler.doctype( dt );
+			}
 		} catch( ParseException parseException ) {
 			parseException.setLocation( context.toString() );
 			throw parseException;
@@ -49,6 +111,8 @@ public class Validator implements Handler {
 	/** @see Handler */
 	public void comment( String comment ) throws ParseException {
 		try {
+			count();
+			beginDocument();
 			handler.comment( comment );
 		} catch( ParseException parseException ) {
 			parseException.setLocation( context.toString() );
@@ -59,6 +123,8 @@ public class Validator implements Handler {
 	/** @see Handler */
 	public void declaration( Declaration declaration ) throws ParseException {
 		try {
+			count();
+			beginDocument();
 			handler.declaration( declaration );
 		} catch( ParseException parseException ) {
 			parseException.setLocation( context.toString() );
@@ -69,6 +135,8 @@ public class Validator implements Handler {
 	/** @see Handler */
 	public void pi( String instruction ) throws ParseException  {
 		try {
+			count();
+			beginDocument();
 			handler.pi( instruction );
 		} catch( ParseException parseException ) {
 			parseException.setLocation( context.toString() );
@@ -79,6 +147,8 @@ public class Validator implements Handler {
 	/** @see Handler */
 	public void entity( String name ) throws ParseException {
 		try {
+			count();
+			beginDocument();
 			handler.entity( name );
 		} catch( ParseException parseException ) {
 			parseException.setLocation( context.toString() );
@@ -92,19 +162,21 @@ public class Validator implements Handler {
 			if( doctype == null ) {
 				throw new ParseException( ParseException.Error.DOCTYPE_NOT_SET, name );
 			}
-			ElementDecl elementDecl = doctype.getElementDecl( name );
-			if( elementDecl == null ) {
+			int id = doctype.getElementId( name );
+			if( id < 0 ) {
 				throw new ParseException( ParseException.Error.ELEMENT_NOT_DECLARED, name );
 			}
+			ElementDecl elementDecl = doctype.getElementDecl( id );
 			elementDecl.validate( attributes );
+			beginDocument();
 			boolean permitted = false;
 			boolean complete = context.complete();
-			if( !context.isExcluded( name ) ) {
-				if( context.isIncluded( name ) ) {
+			if( !context.isExcluded( id ) ) {
+				if( context.isIncluded( id ) ) {
 					permitted = true;
 				} else {
 					/* Ensure element is permitted by content model. */
-					context.shift( name );
+					context.shift( elementDecl.getName() );
 					if( context.marked() ) {
 						// Element accepted.
 						permitted = true;
@@ -114,15 +186,27 @@ public class Validator implements Handler {
 			if( permitted ) {
 				if( !elementDecl.isEmpty() ) {
 					/* Create a new context if element not empty. */
-					context = new Context( elementDecl, context );
+					if( context.getDepth() >= maxDepth ) {
+						throw new ParseException( ParseException.Error.NESTING_TOO_DEEP, name );
+					}
+					context.push( id );
+					if( projection != null && projection.isSkipped( elementDecl.getName() ) ) {
+						skipDepth = context.getDepth();
+					}
+				}
+				count();
+				handler.open( elementDecl.getName(), AttributeList.forHandler( handler, attributes ) );
+				if( elementDecl.isEmpty() ) {
+					endDocument();
 				}
-				handler.open( elementDecl.getName(), attributes );
 			} else {
 				ElementDecl decl = context.getElementDecl();
 				if( complete && decl != null && decl.mayOmit() ) {
 					/* Attempt markup un-minimization. */
+					count();
 					handler.close( decl.getName() );
-					context = context.getParent();
+					context.pop();
+					endDocument();
 					open( name, attributes );
 				} else {
 					throw new ParseException( ParseException.Error.ELEMENT_NOT_PERMITTED, name );
@@ -137,6 +221,13 @@ public class Validator implements Handler {
 	/** @see Handler */
 	public void characters( String characters ) throws ParseException {
 		try {
+			count();
+			ElementDecl decl = context.getElementDecl();
+			boolean elementOnly = checkElementOnly( decl, characters );
+			if( ( discardWhitespace || documentStream && !inDocument ) && ( decl == null || elementOnly ) && isWhitespace( characters ) ) {
+				return;
+			}
+			beginDocument();
 			handler.characters( characters );
 		} catch( ParseException parseException ) {
 			parseException.setLocation( context.toString() );
@@ -147,6 +238,9 @@ public class Validator implements Handler {
 	/** @see Handler */
 	public void characters( String param, String characters ) throws ParseException {
 		try {
+			count();
+			checkElementOnly( context.getElementDecl(), characters );
+			beginDocument();
 			handler.characters( param, characters );
 		} catch( ParseException parseException ) {
 			parseException.setLocation( context.toString() );
@@ -160,18 +254,24 @@ public class Validator implements Handler {
 			if( doctype == null ) {
 				throw new ParseException( ParseException.Error.DOCTYPE_NOT_SET, name );
 			}
-			name = name.toLowerCase();
 			/* Check the element to be closed is at the top of the stack. */
 			ElementDecl elementDecl = context.getElementDecl();
 			if( elementDecl == null ) {
 				throw new ParseException( ParseException.Error.UNEXPECTED_CLOSE_TAG, name );
 			}
-			boolean current = name.length() == 0 || name.equals( elementDecl.getName() );
-			boolean permitted = context.complete() && ( current || elementDecl.mayOmit() );
+			String declName = elementDecl.getName();
+			boolean current = name.length() == 0 || name == declName || name.equalsIgnoreCase( declName );
+			boolean complete = context.complete() || context.getDepth() == skipDepth;
+			boolean permitted = complete && ( current || elementDecl.mayOmit() );
 			if( permitted ) {
 				/* Pop the element. */
+				count();
 				handler.close( elementDecl.getName() );
-				context = context.getParent();
+				if( context.getDepth() == skipDepth ) {
+					skipDepth = 0;
+				}
+				context.pop();
+				endDocument();
 				if( !current ) {
 					/* Close the parent recursively until the named element is found. */
 					close( name );
@@ -197,10 +297,60 @@ public class Validator implements Handler {
 				close( "" );
 				decl = context.getElementDecl();
 			}
-			handler.end();
+			if( !documentStream || inDocument ) {
+				handler.end();
+			}
 		} catch( ParseException parseException ) {
 			parseException.setLocation( context.toString() );
 			throw parseException;
 		}
 	}
+
+	/* In document stream mode, pass on the begin and doctype events if the current document has not begun. */
+	private void beginDocument() throws ParseException {
+		if( documentStream && !inDocument ) {
+			inDocument = true;
+			handler.begin();
+			if( doctype != null ) {
+				handler.doctype( doctype );
+			}
+		}
+	}
+
+	/* In document stream mode, pass on the end event if the top-level element has been closed. */
+	private void endDocument() throws ParseException {
+		if( documentStream && inDocument && context.getDepth() == 0 ) {
+			inDocument = false;
+			events = 0;
+			handler.end();
+			context.reset();
+		}
+	}
+
+	/* Count an event passed on, failing if there are too many. */
+	private void count() throws ParseException {
+		if( ++events > maxEvents ) {
+			throw new ParseException( ParseException.Error.TOO_MANY_EVENTS );
+		}
+	}
+
+	/* Return true if the element is element-only, failing if the characters are not whitespace. */
+	private static boolean checkElementOnly( ElementDecl decl, String characters ) throws ParseException {
+		if( decl == null || !decl.isElementOnly() ) {
+			return false;
+		}
+		if( !isWhitespace( characters ) ) {
+			throw new ParseException( ParseException.Error.CHARACTER_DATA_NOT_PERMITTED, decl.getName() );
+		}
+		return true;
+	}
+
+	private static boolean isWhitespace( String characters ) {
+		for( int idx = 0, length = characters.length(); idx < length; idx++ ) {
+			if( characters.charAt( idx ) > 32 ) {
+				return false;
+			}
+		}
+		return true;
+	}
 }
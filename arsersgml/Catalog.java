@@ -4,7 +4,6 @@ package arsersgml;
 import java.util.Arrays;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.HashMap;
@@ -12,6 +11,7 @@ import java.util.Map;
 
 import arser.Attribute;
 import arser.AttributeDecl;
+import arser.ByteReader;
 import arser.Declaration;
 import arser.Doctype;
 import arser.ElementDecl;
@@ -42,11 +42,14 @@ public class Catalog implements Handler {
 
 	public Catalog( File catalogXml ) throws IOException, ParseException {
 		catalogDir = catalogXml.getParentFile();
-		Reader reader = new InputStreamReader( new FileInputStream( catalogXml ), "UTF-8" );
+		Reader reader = new ByteReader( new FileInputStream( catalogXml ), "UTF-8" );
 		try {
 			Validator validator = new Validator( this );
 			validator.doctype( DOCTYPE );
-			new Parser().parse( reader, validator );
+			Parser parser = new Parser();
+			parser.setDoctype( DOCTYPE );
+			parser.setEventMask( 0 );
+			parser.parse( reader, validator );
 		} finally {
 			reader.close();
 		}
@@ -59,7 +62,7 @@ public class Catalog implements Handler {
 		}
 		Doctype doctype = doctypeCache.get( publicId );
 		if( doctype == null ) {
-			Reader reader = new InputStreamReader( new FileInputStream( new File( catalogDir, systemId ) ), "UTF-8" );
+			Reader reader = new ByteReader( new FileInputStream( new File( catalogDir, systemId ) ), "UTF-8" );
 			try {
 				doctype = Doctype.parse( reader );
 				doctypeCache.put( publicId, doctype );
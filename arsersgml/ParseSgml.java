@@ -1,26 +1,39 @@
 
 package arsersgml;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import arser.Attribute;
 import arser.Declaration;
 import arser.Doctype;
 import arser.Handler;
 import arser.Loader;
+import arser.ParallelGZIPInputStream;
 import arser.ParseException;
 import arser.Parser;
 import arser.Validator;
 
 /**
-	Validate an SGML file using a Catalog to determine the Doctype.
+	Validate an SGML file using a Catalog to determine the Doctype.<p>
+	Gzip-compressed files are decompressed as they are parsed, and each
+	entry of a zip archive may be validated in turn, without extracting them.
 */
 public class ParseSgml implements Handler {
 	private Catalog catalog;
 	private Handler validator;
+	private Parser parser;
 
 	public ParseSgml( Catalog catalog ) {
 		this.catalog = catalog;
@@ -30,19 +43,68 @@ public class ParseSgml implements Handler {
 		this.validator = validator;
 	}
 
+	/** Set the Parser that will be configured with the names of each Doctype. */
+	public void setParser( Parser parser ) {
+		this.parser = parser;
+	}
+
+	/**
+		Validate the document read from the specified stream, which is decompressed
+		if the specified name ends with ".gz".
+	*/
+	public void validate( InputStream input, String name, String encoding ) throws IOException, ParseException {
+		if( name.toLowerCase( Locale.ROOT ).endsWith( ".gz" ) ) {
+			input = new ParallelGZIPInputStream( new BufferedInputStream( input ) );
+		}
+		Validator validator = new Validator( this );
+		setValidator( validator );
+		Parser parser = new Parser();
+		/* Only the doctype declaration and the elements are required for validation. */
+		parser.setEventMask( Parser.DECLARATIONS );
+		setParser( parser );
+		parser.parse( input, encoding, validator );
+	}
+
+	/**
+		Validate each file in the specified zip archive.
+		@return the errors of the invalid entries, by entry name.
+	*/
+	public Map<String,ParseException> validate( ZipFile zipFile, String encoding ) throws IOException {
+		Map<String,ParseException> errors = new TreeMap<String,ParseException>();
+		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		while( entries.hasMoreElements() ) {
+			ZipEntry entry = entries.nextElement();
+			if( !entry.isDirectory() ) {
+				InputStream input = zipFile.getInputStream( entry );
+				try {
+					validate( input, entry.getName(), encoding );
+				} catch( ParseException parseException ) {
+					errors.put( entry.getName(), parseException );
+				} finally {
+					input.close();
+				}
+			}
+		}
+		return errors;
+	}
+
 	public void begin() throws ParseException {}
 	public void doctype( Doctype dt ) throws ParseException {
 	}
 	public void comment( String comment ) throws ParseException {
 	}
 	public void declaration( Declaration declaration ) throws ParseException {
-		if( "doctype".equals( declaration.getName().toLowerCase() ) ) {
+		if( "doctype".equals( declaration.getName().toLowerCase( Locale.ROOT ) ) ) {
 			java.util.List<String> params = declaration.getParams();
-			if( params.size() > 2 && "public".equals( params.get( 1 ).toLowerCase() ) ) {
+			if( params.size() > 2 && "public".equals( params.get( 1 ).toLowerCase( Locale.ROOT ) ) ) {
 				String publicId = params.get( 2 );
 				if( validator != null ) {
 					try {
-						validator.doctype( catalog.getDoctype( Declaration.unQuote( publicId ) ) );
+						Doctype doctype = catalog.getDoctype( Declaration.unQuote( publicId ) );
+						validator.doctype( doctype );
+						if( parser != null ) {
+							parser.setDoctype( doctype );
+						}
 					} catch( IOException e ) {
 						throw new ParseException( e.getMessage() );
 					}
@@ -66,12 +128,27 @@ public class ParseSgml implements Handler {
 	
 	public static void main( String[] args ) throws Exception {
 		if( args.length != 2 ) {
-			System.err.println( "Usage: java " + ParseSgml.class.getName() + " catalog.xml input.sgm" );
+			System.err.println( "Usage: java " + ParseSgml.class.getName() + " catalog.xml input.sgm|input.sgm.gz|input.zip" );
+		} else if( args[ 1 ].toLowerCase( Locale.ROOT ).endsWith( ".zip" ) ) {
+			ParseSgml parseSgml = new ParseSgml( new Catalog( new File( args[ 0 ] ) ) );
+			ZipFile zipFile = new ZipFile( args[ 1 ] );
+			try {
+				Map<String,ParseException> errors = parseSgml.validate( zipFile, "ISO-8859-1" );
+				for( Map.Entry<String,ParseException> error : errors.entrySet() ) {
+					System.out.println( error.getKey() + ": " + error.getValue() );
+				}
+				System.out.println( errors.isEmpty() ? "Documents are valid." : errors.size() + " documents are invalid." );
+			} finally {
+				zipFile.close();
+			}
 		} else {
-			ParseSgml parseSgml = new ParseSgml( new Catalog( new java.io.File( args[ 0 ] ) ) );
+			ParseSgml parseSgml = new ParseSgml( new Catalog( new File( args[ 0 ] ) ) );
 			Validator validator = new Validator( parseSgml );
 			parseSgml.setValidator( validator );
-			new Parser().parse( new java.io.InputStreamReader( new java.io.FileInputStream( args[ 1 ] ), "ISO-8859-1" ), validator );
+			Parser parser = new Parser();
+			parser.setEventMask( Parser.DECLARATIONS );
+			parseSgml.setParser( parser );
+			parser.parse( new File( args[ 1 ] ), "ISO-8859-1", validator );
 			System.out.println( "Document is valid." );
 		}
 	}
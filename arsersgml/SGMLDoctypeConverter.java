@@ -3,18 +3,19 @@ package arsersgml;
 
 import arser.Attribute;
 import arser.AttributeDecl;
+import arser.ByteReader;
 import arser.ContentModel;
 import arser.ContentModelCompiler;
 import arser.Declaration;
 import arser.Doctype;
 import arser.ElementDecl;
+import arser.EntityTable;
 import arser.Handler;
 import arser.Parser;
 import arser.ParseException;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
@@ -22,19 +23,22 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
-	Limited tool to convert element declarations in the
-	doctype internal subset of an SGML document into an Arser Doctype.
+	Limited tool to convert element declarations and internal general entities
+	in the doctype internal subset of an SGML document into an Arser Doctype.
 */
 public class SGMLDoctypeConverter implements Handler {
 	private List<Declaration> declarations;
 	private Map<String,String> parameters;
+	private Map<String,String> entities;
 
 	/**
 		Convert element declarations in the internal subset of an SGML
@@ -44,6 +48,7 @@ public class SGMLDoctypeConverter implements Handler {
 	public Doctype convert( Reader input ) throws IOException, ParseException {
 		declarations = new LinkedList<Declaration>();
 		parameters = new TreeMap<String,String>();
+		entities = new LinkedHashMap<String,String>();
 		Parser parser = new Parser();
 		parser.parse( input, this );
 		// Expand parameters in all collected declarations.
@@ -70,10 +75,10 @@ public class SGMLDoctypeConverter implements Handler {
 		Map<String,Declaration> elementDecls = new TreeMap<String,Declaration>();
 		Map<String,Declaration> attlistDecls = new TreeMap<String,Declaration>();
 		for( Declaration decl : declarations ) {
-			String declName = decl.getName().toLowerCase();
+			String declName = decl.getName().toLowerCase( Locale.ROOT );
 			if( "attlist".equals( declName ) ) {
 				List<String> params = decl.getParams();
-				String elementNames = params.get( 0 ).toLowerCase();
+				String elementNames = params.get( 0 ).toLowerCase( Locale.ROOT );
 				if( "#notation".equals( elementNames ) ) {
 					System.out.println( "Ignoring notation attlist." );
 				} else {
@@ -88,7 +93,7 @@ public class SGMLDoctypeConverter implements Handler {
 				}
 			} else if( "element".equals( declName ) ) {
 				List<String> params = decl.getParams();
-				List<String> names = expandNameGroup( params.get( 0 ).toLowerCase() );
+				List<String> names = expandNameGroup( params.get( 0 ).toLowerCase( Locale.ROOT ) );
 				for( String name : names ) {
 					params.set( 0, name );
 					if( elementDecls.get( name ) != null ) {
@@ -107,14 +112,18 @@ public class SGMLDoctypeConverter implements Handler {
 			}
 		}
 		// Generate doctype.
-		return generateDoctype( elementDecls, attlistDecls );
+		return generateDoctype( elementDecls, attlistDecls, entities );
 	}
 
 	public static Doctype generateDoctype( Map<String,Declaration> elements, Map<String,Declaration> attlists ) throws ParseException {
+		return generateDoctype( elements, attlists, null );
+	}
+
+	public static Doctype generateDoctype( Map<String,Declaration> elements, Map<String,Declaration> attlists, Map<String,String> entities ) throws ParseException {
 		List<ElementDecl> elementDecls = new LinkedList<ElementDecl>();
 		for( Declaration element : elements.values() ) {
 			List<String> params = element.getParams();
-			String name = params.get( 0 ).toLowerCase();
+			String name = params.get( 0 ).toLowerCase( Locale.ROOT );
 			String omitStart = params.get( 1 );
 			String omitEnd = params.get( 2 );
 			if( !"-".equals( omitStart ) && !"-".equals( omitEnd ) && !"o".equals( omitEnd ) && !"O".equals( omitEnd ) ) {
@@ -122,7 +131,9 @@ public class SGMLDoctypeConverter implements Handler {
 					"Invalid omission modifiers in element declaration: " + name );
 			}
 			// Convert model and check references.
-			boolean isEmpty = "empty".equals( params.get( 3 ).toLowerCase() );
+			boolean isEmpty = "empty".equals( params.get( 3 ).toLowerCase( Locale.ROOT ) );
+			/* A model group without #PCDATA is element content, in which whitespace is not significant. */
+			boolean isElementOnly = params.get( 3 ).charAt( 0 ) == '(' && params.get( 3 ).toLowerCase( Locale.ROOT ).indexOf( "#pcdata" ) < 0;
 			String model = convertContentModel( params.get( 3 ) );
 			for( String elem : expandNameGroup( "(" + model + ")" ) ) {
 				if( !".".equals( elem ) && elements.get( elem ) == null ) {
@@ -154,9 +165,9 @@ public class SGMLDoctypeConverter implements Handler {
 			ContentModel contentModel = new ContentModelCompiler().compile( model );
 			boolean mayOmit = !"-".equals( omitEnd );
 			List<AttributeDecl> attributeDecls = generateAttributeDecls( attlists.get( name ) );
-			elementDecls.add( new ElementDecl( name, attributeDecls, contentModel, inclusions, exclusions, isEmpty, mayOmit ) );
+			elementDecls.add( new ElementDecl( name, attributeDecls, contentModel, inclusions, exclusions, isEmpty, mayOmit, isElementOnly ) );
 		}
-		return new Doctype( elementDecls );
+		return new Doctype( elementDecls, entities );
 	}
 
 	public static List<AttributeDecl> generateAttributeDecls( Declaration attlist ) throws ParseException {
@@ -167,11 +178,11 @@ public class SGMLDoctypeConverter implements Handler {
 			ListIterator<String> iterator = attlist.getParams().listIterator();
 			String elementName = iterator.next();
 			while( true ) {
-				String attName = iterator.next().toLowerCase();
+				String attName = iterator.next().toLowerCase( Locale.ROOT );
 				if( !iterator.hasNext() ) {
 					throw new ParseException( "Type or value list missing from attlist declaration." );
 				}
-				String attType = iterator.next().toLowerCase();
+				String attType = iterator.next().toLowerCase( Locale.ROOT );
 				List<String> attValues = new LinkedList<String>();
 				if( attType.charAt( 0 ) == '(' ) {
 					attValues = expandNameGroup( attType );
@@ -203,7 +214,7 @@ public class SGMLDoctypeConverter implements Handler {
 						throw new ParseException( "Default value missing from attlist declaration." );
 					}
 					attDefault = iterator.next();
-					attDefault = Declaration.unQuote( attDefault.toLowerCase() );
+					attDefault = Declaration.unQuote( attDefault.toLowerCase( Locale.ROOT ) );
 					attValues.clear();
 					attValues.add( attDefault );
 				}
@@ -214,7 +225,7 @@ public class SGMLDoctypeConverter implements Handler {
 				} else if( "#IMPLIED".equals( attDefault ) ) {
 					attDefault = "";
 				} else {
-					attDefault = Declaration.unQuote( attDefault.toLowerCase() );
+					attDefault = Declaration.unQuote( attDefault.toLowerCase( Locale.ROOT ) );
 				}
 				AttributeDecl attributeDecl = new AttributeDecl( attName, attValues, attDefault, attRequired );
 				attributes.put( attName, attributeDecl );
@@ -229,11 +240,11 @@ public class SGMLDoctypeConverter implements Handler {
 	public void begin() throws ParseException {}
 	public void declaration( Declaration declaration ) throws ParseException {
 		for( Declaration decl : declaration.getSubset() ) {
-			String name = decl.getName().toLowerCase();
+			String name = decl.getName().toLowerCase( Locale.ROOT );
 			List<String> params = decl.getParams();
 			if( "entity".equals( name ) ) {
 				if( "%".equals( params.get( 0 ) ) ) {
-					String paramName = params.get( 1 ).toLowerCase();
+					String paramName = params.get( 1 ).toLowerCase( Locale.ROOT );
 					String paramValue = Declaration.unQuote( params.get( 2 ) );
 					if( parameters.containsKey( paramName ) ) {
 						System.out.println( "Parameter redeclared: " + paramName
@@ -241,8 +252,18 @@ public class SGMLDoctypeConverter implements Handler {
 					}
 					parameters.put( paramName, paramValue );
 					//System.out.println( name + " % " + paramName + " = " + paramValue );
+				} else if( isInternalEntity( params ) ) {
+					/* Internal text or CDATA entity, with any character references expanded. */
+					String entityName = params.get( 0 );
+					String entityValue = Declaration.unQuote( params.get( params.size() - 1 ) );
+					if( params.size() == 2 ) {
+						entityValue = replace( entityValue, parameters );
+					}
+					if( !entities.containsKey( entityName ) ) {
+						entities.put( entityName, EntityTable.expand( entityValue ) );
+					}
 				} else {
-					System.out.println( "Ignoring entity declaration: " + name );
+					System.out.println( "Ignoring entity declaration: " + params.get( 0 ) );
 				}
 			} else {
 				declarations.add( decl );
@@ -260,6 +281,18 @@ public class SGMLDoctypeConverter implements Handler {
 	public void close( String name ) throws ParseException {}
 	public void end() throws ParseException {}
 	
+	/* Return true if the specified entity declaration parameters declare an internal text or CDATA entity. */
+	private static boolean isInternalEntity( List<String> params ) {
+		if( params.size() < 2 || params.get( 0 ).startsWith( "#" ) ) {
+			return false;
+		}
+		String value = params.get( params.size() - 1 );
+		if( value.length() < 2 || ( value.charAt( 0 ) != '"' && value.charAt( 0 ) != '\'' ) ) {
+			return false;
+		}
+		return params.size() == 2 || ( params.size() == 3 && "cdata".equals( params.get( 1 ).toLowerCase( Locale.ROOT ) ) );
+	}
+
 	/* Read the entire content into a String. */
 	public static String readString( Reader reader ) throws IOException {
 		StringBuilder stringBuilder = new StringBuilder();
@@ -308,7 +341,7 @@ public class SGMLDoctypeConverter implements Handler {
 					chr = str.charAt( idx++ );
 				}
 				String name = str.substring( start, idx - 1 );
-				String repl = parameters.get( name.toLowerCase() );
+				String repl = parameters.get( name.toLowerCase( Locale.ROOT ) );
 				if( repl == null ) {
 					throw new ParseException( "Undefined entity: " + name );
 				}
@@ -326,7 +359,7 @@ public class SGMLDoctypeConverter implements Handler {
 	public static String convertContentModel( String model ) throws ParseException {
 		// model could be "CDATA", "RCDATA", "EMPTY", "ANY", or "(content model)".
 		// (content model) could contain "#PCDATA" as an occurrence.
-		model = model.toLowerCase();
+		model = model.toLowerCase( Locale.ROOT );
 		if( "cdata".equals( model ) || "rcdata".equals( model ) || "empty".equals( model ) ) {
 			return ".";
 		} else if( "any".equals( model ) ) {
@@ -360,7 +393,7 @@ public class SGMLDoctypeConverter implements Handler {
 			System.err.println( "Usage java " + SGMLDoctypeConverter.class.getName() + " input.sgm output.sgm" );
 			System.exit( 1 );
 		}
-		Reader input = new InputStreamReader( new FileInputStream( args[ 0 ] ), "ISO-8859-1" );
+		Reader input = new ByteReader( new FileInputStream( args[ 0 ] ), "ISO-8859-1" );
 		Doctype doctype = new SGMLDoctypeConverter().convert( input );
 
 		// Test the doctype parser.
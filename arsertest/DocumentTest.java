@@ -1,13 +1,14 @@
 
 package arsertest;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 
+import arser.ByteReader;
 import arser.Doctype;
 import arser.Document;
 import arser.Loader;
@@ -25,17 +26,17 @@ public class DocumentTest {
 			System.exit( 0 );
 		} else {
 			// Load doctype.
-			Reader reader = new InputStreamReader( new FileInputStream( args[ 0 ] ), "ISO-8859-1" );
+			Reader reader = new ByteReader( new FileInputStream( args[ 0 ] ), "ISO-8859-1" );
 			Doctype doctype = Doctype.parse( reader );
 			reader.close();
 			if( args.length > 1 ) {
 				// Load document. Loader requires the input to be normalized, so a Validator must be used.
-				reader = new InputStreamReader( new FileInputStream( args[ 1 ] ), "ISO-8859-1" );
 				Loader loader = new Loader();
 				Validator validator = new Validator( loader );
 				validator.doctype( doctype );
-				new Parser().parse( reader, validator );
-				reader.close();
+				Parser parser = new Parser();
+				parser.setDoctype( doctype );
+				parser.parse( new File( args[ 1 ] ), "ISO-8859-1", validator );
 				// Validate in-memory (again), to test the in-memory validator.
 				loader.getDocument().validate();
 				System.out.println( "Document is valid." );
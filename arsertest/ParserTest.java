@@ -1,25 +1,72 @@
 
 package arsertest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import arser.Attribute;
+import arser.Automaton;
+import arser.ByteReader;
+import arser.ContentModelCompiler;
+import arser.Context;
+import arser.Cursor;
 import arser.Declaration;
 import arser.Doctype;
+import arser.Element;
+import arser.ElementDecl;
+import arser.EventBatch;
+import arser.EventPublisher;
 import arser.Handler;
+import arser.Limits;
 import arser.Loader;
 import arser.ParseException;
+import arser.ParallelGZIPInputStream;
+import arser.ParallelParser;
 import arser.Parser;
+import arser.PositionModel;
+import arser.Projection;
+import arser.PushParser;
+import arser.RecordIterator;
+import arser.SymbolTable;
+import arser.TokenHandler;
 import arser.Validator;
+import arsersgml.Catalog;
+import arsersgml.ParseSgml;
+import arsersgml.SGMLDoctypeConverter;
 
 /**
 	Parser/validator unit tests.
 */
 public class ParserTest {
-	public static void main( String[] args ) throws IOException, ParseException {
+	public static void main( String[] args ) throws IOException, ParseException, InterruptedException {
 		/* Load the doctype into the document object model and validate. */
 		Loader loader = new Loader();
 		StringWriter doctypeWriter = new StringWriter();
@@ -136,7 +183,11 @@ public class ParserTest {
 				"<element name=j exclude=i>" +
 				"<element name=x empty>" +
 				"<element name=y empty>" +
-				"<element name=z>"
+				"<element name=z>" +
+				"<element name=nest content=nest? include=i>" +
+				"<element name=list include=i text=no>" +
+				"<entity name=amp value='&#38;'>" +
+				"<entity name=quot value='\"&#39;&#x1D11E;'>"
 			)
 		);
 		/* Basic syntax.*/
@@ -236,11 +287,62 @@ public class ParserTest {
 		test( "<content><A><B><C></content>", doctype, handler, ParseException.Error.CLOSE_ELEMENT_NOT_PERMITTED );
 		test( "<content>", doctype, handler, ParseException.Error.CLOSE_ELEMENT_MISSING );
 		test( "<content></content>", doctype, handler, ParseException.Error.CLOSE_ELEMENT_NOT_PERMITTED );
+		/* Content models simulated by PositionModel rather than an Automaton. */
+		Doctype positionDoctype = new Doctype( java.util.Arrays.asList( new ElementDecl[] {
+			new ElementDecl( "content", null, new PositionModel( doctype.getElementDecl( "content" ).getContentModel() ), null, null, false, false ),
+			doctype.getElementDecl( "a" ), doctype.getElementDecl( "b" ), doctype.getElementDecl( "c" ),
+			doctype.getElementDecl( "d" ), doctype.getElementDecl( "e" ), doctype.getElementDecl( "f" ),
+			doctype.getElementDecl( "g" ), doctype.getElementDecl( "x" ), doctype.getElementDecl( "y" ) } ) );
+		test( "<content><A><B><C><c><D><E><F><G></content>", positionDoctype, handler, null );
+		test( "<content><A><B><C><X><Y></content>", positionDoctype, handler, null );
+		test( "<content><A><B><D><E><F><G></content>", positionDoctype, handler, ParseException.Error.ELEMENT_NOT_PERMITTED );
+		test( "<content><A><B><C><e><e><F><G></content>", positionDoctype, handler, ParseException.Error.ELEMENT_NOT_PERMITTED );
+		test( "<content><A><B><C></content>", positionDoctype, handler, ParseException.Error.CLOSE_ELEMENT_NOT_PERMITTED );
+		/* A content model with too many states for an Automaton, simulated by a PositionModel instead. */
+		String tail = new String( new char[ 10 ] ).replace( "\0", ",(a|b)" );
+		Doctype blowupDoctype = Doctype.parse( new StringReader( "<doctype><element name=r content=(a|b)*,a" + tail + ">"
+			+ "<element name=a empty><element name=b empty><element name=z empty>" ) );
+		ElementDecl blowupDecl = blowupDoctype.getElementDecl( "r" );
+		if( blowupDecl.getAutomaton() != null || !( blowupDecl.getContentModel() instanceof PositionModel ) ) {
+			throw new ParseException( "Expected a PositionModel.", blowupDecl.getContentModel().toString() );
+		}
+		String tenB = tail.replace( ",(a|b)", "<b>" );
+		test( "<r><a>" + tenB + "</r>", blowupDoctype, handler, null );
+		test( "<r><b><a><a>" + tenB.substring( 3 ) + "<a></r>", blowupDoctype, handler, null );
+		test( "<r><a>" + tenB.substring( 3 ) + "</r>", blowupDoctype, handler, ParseException.Error.CLOSE_ELEMENT_NOT_PERMITTED );
+		test( "<r><a>" + tenB + "<b></r>", blowupDoctype, handler, ParseException.Error.CLOSE_ELEMENT_NOT_PERMITTED );
+		test( "<r><a><z>", blowupDoctype, handler, ParseException.Error.ELEMENT_NOT_PERMITTED );
+		/* Automata compiled directly, including the shared symbol of undeclared names and the dead state. */
+		testAutomaton( "a?,b+", new String[] { "b", "a b b" }, new String[] { "", "a", "b a", "a zz" } );
+		testAutomaton( "(a|b)+,c", new String[] { "a c", "b a c" }, new String[] { "c", "a c c", "a zz c" } );
+		/* The AND connector a&b&c? restated in terms of OR, as required by SGMLDoctypeConverter. */
+		testAutomaton( "(a,b,c?)|(a,c?,b)|(b,a,c?)|(b,c?,a)|(c,((a,b)|(b,a)))", new String[] { "a b", "b a", "c b a", "a c b" }, new String[] { "a", "a a b", "a b d", "c" } );
+		try {
+			SGMLDoctypeConverter.convertContentModel( "(a&b&c?)" );
+			throw new ParseException( "Exception expected but none thrown.", "(a&b&c?)" );
+		} catch( ParseException e ) {
+			if( e.getError() != ParseException.Error.OTHER ) {
+				throw e;
+			}
+		}
+		/* Enough states to grow the transition table several times. */
+		Automaton largeAutomaton = testAutomaton( "(a|b)*,a,(a|b),(a|b),(a|b),(a|b),(a|b)",
+			new String[] { "a b b b b b", "b a a a a a a" }, new String[] { "b b b b b b", "a b b b b", "a zz b b b b" } );
+		if( largeAutomaton.getStateCount() < 64 || largeAutomaton.getSymbolCount() != 3 ) {
+			throw new ParseException( "Unexpected automaton size.", largeAutomaton.getStateCount() + " " + largeAutomaton.getSymbolCount() );
+		}
 		/* Inclusions and exclusions. */
 		test( "<h><i><j></j></i></h>", doctype, handler, null );
 		test( "<h><i><j></j></i><i><j></j></i></h>", doctype, handler, null );
 		test( "<h><i><j></j><i><j></j></i></i></h>", doctype, handler, null );
 		test( "<h><i><j><i><j></j></i></j></i></h>", doctype, handler, ParseException.Error.ELEMENT_NOT_PERMITTED );
+		/* Deeply nested elements and inherited inclusions. */
+		StringBuilder nested = new StringBuilder();
+		for( int depth = 0; depth < 100; depth++ ) {
+			nested.append( "<nest>" );
+		}
+		test( nested.toString() + "<i><j></j></i>" + nested.toString().replace( "<", "</" ), doctype, handler, null );
+		test( nested.toString() + "<i><j><i>", doctype, handler, ParseException.Error.ELEMENT_NOT_PERMITTED );
 		/* Attributes. */
 		test( "<doc attr=''>", doctype, handler, null );
 		test( "<doc attr=c>", doctype, handler, null );
@@ -255,7 +357,616 @@ public class ParserTest {
 		test( "<doc d>", doctype, handler, ParseException.Error.UNDECLARED_ATTRIBUTE );
 		test( "<doc a b>", doctype, handler, ParseException.Error.DUPLICATE_ATTRIBUTE );
 		test( "<doc ATTR=D>", doctype, handler, ParseException.Error.ATTRIBUTE_VALUE_NOT_PERMITTED );
+		test( "<doc ;>", doctype, handler, ParseException.Error.INVALID_ATTRIBUTE_NAME );
 		test( "<book>", doctype, handler, ParseException.Error.REQUIRED_ATTRIBUTE_MISSING );
+		/* Minimized values keep their case, even when they are also declared names. */
+		Recorder minimizedRecorder = new Recorder();
+		Validator minimizedValidator = new Validator( minimizedRecorder );
+		minimizedValidator.doctype( doctype );
+		new Parser().parse( new StringReader( "<doc A></doc><doc b>" ), minimizedValidator );
+		if( !minimizedRecorder.events.toString().equals( "open(doc[attr=\"A\"])close(doc)open(doc[attr=\"b\"])close(doc)" ) ) {
+			throw new ParseException( "Unexpected minimized attributes.", minimizedRecorder.events.toString() );
+		}
+		/* Attribute lists kept by a Handler, directly from the Parser and from the Validator. */
+		final List<List<Attribute>> keptAttributes = new ArrayList<List<Attribute>>();
+		Recorder keepingRecorder = new Recorder() {
+			public void open( String name, List<Attribute> attributes ) throws ParseException {
+				keptAttributes.add( attributes );
+			}
+		};
+		new Parser().parse( new StringReader( "<doc attr=b><doc attr=c>" ), keepingRecorder );
+		Validator keepingValidator = new Validator( keepingRecorder );
+		keepingValidator.doctype( doctype );
+		new Parser().parse( new StringReader( "<doc b></doc><doc c>" ), keepingValidator );
+		if( !keptAttributes.toString().equals( "[[attr=\"b\"], [attr=\"c\"], [attr=\"b\"], [attr=\"c\"]]" ) ) {
+			throw new ParseException( "Unexpected kept attributes.", keptAttributes.toString() );
+		}
+		/* A name whose lower-case String is longer, stored as it is folded for lookups. */
+		SymbolTable symbolTable = new SymbolTable();
+		int dottedId = symbolTable.add( "\u0130D" );
+		char[] dottedChars = "x\u0130d".toCharArray();
+		if( symbolTable.add( "\u0130D" ) != dottedId || symbolTable.size() != 1 || symbolTable.getId( "\u0130d" ) != dottedId
+			|| symbolTable.getId( dottedChars, 1, 2 ) != dottedId || !symbolTable.getName( dottedId ).equals( "id" ) ) {
+			throw new ParseException( "Unexpected folded symbol.", symbolTable.getName( dottedId ) );
+		}
+		/* Names folded the same way whatever the default locale. */
+		Locale defaultLocale = Locale.getDefault();
+		try {
+			Locale.setDefault( new Locale( "tr", "TR" ) );
+			minimizedRecorder.events.setLength( 0 );
+			new Parser().parse( new StringReader( "<BOOK TITLE=T>x</BOOK>" ), minimizedValidator );
+			if( !minimizedRecorder.events.toString().equals( "open(book[title=\"T\"])characters(x)close(book)" )
+				|| !new Attribute( "TITLE", "T" ).getName().equals( "title" ) ) {
+				throw new ParseException( "Unexpected names in a Turkish locale.", minimizedRecorder.events.toString() );
+			}
+		} finally {
+			Locale.setDefault( defaultLocale );
+		}
+		/* Tokens longer than the initial buffer. */
+		char[] longChars = new char[ 5000 ];
+		java.util.Arrays.fill( longChars, 'x' );
+		String longToken = new String( longChars );
+		Validator longValidator = new Validator( new Loader() );
+		longValidator.doctype( doctype );
+		new Parser().parse( new StringReader( "<book title=" + longToken + "></book><book title='" + longToken + "'></book>"
+			+ "<?" + longToken + "><!decl " + longToken + " (" + longToken + ")>" ), longValidator );
+		try {
+			Parser limitedParser = new Parser();
+			limitedParser.setMaxTokenLength( 4096 );
+			limitedParser.parse( new StringReader( "<?" + longToken + ">" ), handler );
+			throw new ParseException( "Exception expected but none thrown.", ParseException.Error.TOKEN_TOO_LONG.toString() );
+		} catch( ParseException e ) {
+			if( e.getError() != ParseException.Error.TOKEN_TOO_LONG ) {
+				throw e;
+			}
+		}
+		/* Line numbers following long runs of characters, comments and values, also when the input is read ahead. */
+		String longLines = longToken.replace( "xxxxxxxxxx", "xxxxxxxxx\n" );
+		String linesDocument = "<book title=x>" + longLines + "</book><!--" + longLines + "--><book title='" + longLines + "'></book><book>";
+		for( int readAheadCount = 0; readAheadCount <= 3; readAheadCount += 3 ) {
+			try {
+				Validator linesValidator = new Validator( new Loader() );
+				linesValidator.doctype( doctype );
+				Parser linesParser = new Parser();
+				linesParser.setReadAhead( 1000, readAheadCount );
+				linesParser.parse( new StringReader( linesDocument ), linesValidator );
+				throw new ParseException( "Exception expected but none thrown.", ParseException.Error.REQUIRED_ATTRIBUTE_MISSING.toString() );
+			} catch( ParseException e ) {
+				if( e.getError() != ParseException.Error.REQUIRED_ATTRIBUTE_MISSING || e.getLineNumber() != 1501
+					|| e.getColumnNumber() != 15 || e.getOffset() != linesDocument.length() ) {
+					throw e;
+				}
+			}
+		}
+		/* Low-level handler receiving views of the parser buffers. */
+		final StringBuilder events = new StringBuilder();
+		TokenHandler tokenHandler = new TokenHandler() {
+			public void begin() throws ParseException {}
+			public void comment( CharSequence comment ) throws ParseException {
+				events.append( "comment(" ).append( comment ).append( ')' );
+			}
+			public void declaration( Declaration declaration ) throws ParseException {}
+			public void pi( CharSequence instruction ) throws ParseException {
+				events.append( "pi(" ).append( instruction ).append( ')' );
+			}
+			public void entity( CharSequence name ) throws ParseException {
+				events.append( "entity(" ).append( name ).append( ')' );
+			}
+			public void open( CharSequence name, java.util.List<Attribute> attributes ) throws ParseException {
+				events.append( "open(" ).append( name ).append( ')' );
+			}
+			public void characters( CharSequence characters ) throws ParseException {
+				events.append( "characters(" ).append( characters ).append( ')' );
+			}
+			public void characters( CharSequence param, CharSequence characters ) throws ParseException {
+				events.append( param ).append( '(' ).append( characters ).append( ')' );
+			}
+			public void close( CharSequence name ) throws ParseException {
+				events.append( "close(" ).append( name ).append( ')' );
+			}
+			public void end() throws ParseException {}
+		};
+		Parser tokenParser = new Parser();
+		tokenParser.setDoctype( doctype );
+		String tokenDocument = "<DOC attr=b><Other><!--c--><?pi>&ent;text<![CDATA[<a>]]></other></doc>";
+		String tokenEvents = "open(doc)open(Other)comment(c)pi(pi)entity(ent)characters(text)CDATA(<a>)close(other)close(doc)";
+		tokenParser.parse( new StringReader( tokenDocument ), tokenHandler );
+		if( !events.toString().equals( tokenEvents ) ) {
+			throw new ParseException( "Unexpected token events.", events.toString() );
+		}
+		/* Events that are not required skipped, including a declaration with a subset. */
+		events.setLength( 0 );
+		Parser maskParser = new Parser();
+		maskParser.setDoctype( doctype );
+		maskParser.setEventMask( Parser.CHARACTERS );
+		maskParser.parse( new StringReader( "<!decl 'p>' -- > -- [<!decl [<!-- ] -->]>]>" + tokenDocument ), tokenHandler );
+		if( !events.toString().equals( "open(doc)open(Other)characters(text)close(other)close(doc)" ) ) {
+			throw new ParseException( "Unexpected masked events.", events.toString() );
+		}
+		/* Character references and declared entities expanded into the characters. */
+		StringWriter entityWriter = new StringWriter();
+		doctype.write( entityWriter );
+		if( !"\"'\uD834\uDD1E".equals( Doctype.parse( new StringReader( entityWriter.toString() ) ).getEntity( "quot" ) ) ) {
+			throw new ParseException( "Unexpected entity text.", doctype.getEntity( "quot" ) );
+		}
+		events.setLength( 0 );
+		tokenParser.setExpandEntities( true );
+		String entityDocument = "<doc>a&amp;b&#65;&#x42;&quot;&ent;&#xZZ;&AMP;c</doc>";
+		String entityEvents = "open(doc)characters(a&bAB\"'\uD834\uDD1E)entity(ent)entity(#xZZ)entity(AMP)characters(c)close(doc)";
+		tokenParser.parse( new StringReader( entityDocument ), tokenHandler );
+		if( !events.toString().equals( entityEvents ) ) {
+			throw new ParseException( "Unexpected expanded events.", events.toString() );
+		}
+		/* Long processing-instructions in pieces. */
+		events.setLength( 0 );
+		Parser chunkParser = new Parser();
+		chunkParser.setMaxTokenLength( 4096 );
+		chunkParser.setChunkInstructions( true );
+		chunkParser.parse( new StringReader( "<?" + longToken + "><?>" ), tokenHandler );
+		if( !events.toString().equals( "pi(" + longToken.substring( 0, 2048 ) + ")pi(" + longToken.substring( 2048, 4096 ) + ")pi(" + longToken.substring( 4096 ) + ")pi()" ) ) {
+			throw new ParseException( "Unexpected processing-instruction events.", events.toString() );
+		}
+		/* Character data, marked sections and comments coalesced into single events, up to the maximum token length. */
+		events.setLength( 0 );
+		Parser coalesceParser = new Parser();
+		coalesceParser.setCoalesceCharacters( true );
+		coalesceParser.parse( new StringReader( longToken + "<![CDATA[" + longToken + "]]>" + longToken + "<!--" + longToken + "-->" ), tokenHandler );
+		coalesceParser.setMaxTokenLength( 4096 );
+		coalesceParser.parse( new StringReader( longToken ), tokenHandler );
+		if( !events.toString().equals( "characters(" + longToken + ")CDATA(" + longToken + ")characters(" + longToken + ")comment(" + longToken + ")"
+			+ "characters(" + longToken.substring( 0, 4096 ) + ")characters(" + longToken.substring( 4096 ) + ")" ) ) {
+			throw new ParseException( "Unexpected coalesced events.", events.toString() );
+		}
+		/* Whitespace discarded within element-only content. */
+		if( !Doctype.parse( new StringReader( entityWriter.toString() ) ).getElementDecl( "list" ).isElementOnly() ) {
+			throw new ParseException( "Expected element-only declaration.", "list" );
+		}
+		Recorder whitespaceRecorder = new Recorder();
+		Validator whitespaceValidator = new Validator( whitespaceRecorder );
+		whitespaceValidator.setDiscardWhitespace( true );
+		whitespaceValidator.doctype( doctype );
+		new Parser().parse( new StringReader( " <list>\n <i>\n<j> </j> </i>\n</list>\n" ), whitespaceValidator );
+		if( !whitespaceRecorder.events.toString().equals( "open(list[])open(i[])characters(\n)open(j[])characters( )close(j)characters( )close(i)close(list)" ) ) {
+			throw new ParseException( "Unexpected whitespace events.", whitespaceRecorder.events.toString() );
+		}
+		test( "<list> <i><j> </j></i> </list>", doctype, handler, null );
+		test( "<list> x </list>", doctype, handler, ParseException.Error.CHARACTER_DATA_NOT_PERMITTED );
+		test( "<list><![CDATA[x]]></list>", doctype, handler, ParseException.Error.CHARACTER_DATA_NOT_PERMITTED );
+		Validator mixedValidator = new Validator( new Loader() );
+		mixedValidator.doctype( doctype );
+		new Parser().parse( new StringReader( "<h> x </h>" ), mixedValidator );
+		/* The deprecated Context constructor and methods, with and without a Doctype. */
+		testDeprecatedContext( doctype );
+		/* Content that cannot contain a wanted element skipped, whether parsed or pushed. */
+		Projection projection = new Projection( doctype, java.util.Arrays.asList( "J" ) );
+		if( !projection.isSkipped( "book" ) || projection.isSkipped( "content" ) || projection.isSkipped( "nest" ) || projection.isSkipped( "doc" ) ) {
+			throw new ParseException( "Unexpected projection.", "book" );
+		}
+		/* Empty end tags close elements within the skipped content, and the skipped element in the second document. */
+		String[] projectDocuments = {
+			"<BOOK title='<j>'><z a=\"</book>\">text<j></j><Book><!-- </book> --><book/></book><book>y</><![CDATA[</book>]]></book >"
+				+ "<h><i><j>x</j></i></h>",
+			"<book title=t>x</><h><i><j>x</j></i></h>"
+		};
+		String[] projectEvents = {
+			"open(book[title=\"<j>\"])close(book)open(h[])open(i[])open(j[])characters(x)close(j)close(i)close(h)",
+			"open(book[title=\"t\"])close(book)open(h[])open(i[])open(j[])characters(x)close(j)close(i)close(h)"
+		};
+		Validator unprojectedValidator = new Validator( new Loader() );
+		unprojectedValidator.doctype( doctype );
+		new Parser().parse( new StringReader( projectDocuments[ 1 ] ), unprojectedValidator );
+		for( int push = 0; push < 4; push++ ) {
+			String projectDocument = projectDocuments[ push / 2 ];
+			Recorder projectRecorder = new Recorder();
+			Validator projectValidator = new Validator( projectRecorder );
+			projectValidator.setProjection( projection );
+			projectValidator.doctype( doctype );
+			if( push % 2 > 0 ) {
+				PushParser projectPushParser = new PushParser( projectValidator );
+				projectPushParser.setDoctype( doctype );
+				projectPushParser.setProjection( projection );
+				for( int idx = 0; idx < projectDocument.length(); idx++ ) {
+					projectPushParser.feed( projectDocument.toCharArray(), idx, 1 );
+				}
+				projectPushParser.finish();
+			} else {
+				Parser projectParser = new Parser();
+				projectParser.setDoctype( doctype );
+				projectParser.setProjection( projection );
+				projectParser.parse( new StringReader( projectDocument ), projectValidator );
+			}
+			if( !projectRecorder.events.toString().equals( projectEvents[ push / 2 ] ) ) {
+				throw new ParseException( "Unexpected projected events.", projectRecorder.events.toString() );
+			}
+		}
+		/* A stream of documents, each with its own begin and end events. */
+		Recorder streamRecorder = new Recorder();
+		streamRecorder.documents = true;
+		Validator streamValidator = new Validator( streamRecorder );
+		streamValidator.setDocumentStream( true );
+		streamValidator.doctype( doctype );
+		new Parser().parse( new StringReader( "\n<h></h>\n<?pi><h><i><j></j></i></h> <a> <doc><a>" ), streamValidator );
+		if( !streamRecorder.events.toString().equals( "begin()open(h[])close(h)end()begin()pi(pi)open(h[])open(i[])open(j[])close(j)close(i)close(h)end()"
+			+ "begin()open(a[])end()begin()open(doc[attr=\"a\"])open(a[])close(doc)end()" ) ) {
+			throw new ParseException( "Unexpected stream events.", streamRecorder.events.toString() );
+		}
+		/* Records loaded one at a time, the objects of each being reused for the next. */
+		RecordIterator recordIterator = new RecordIterator( new StringReader( "<h><i><j>a</j></i>\n<i><j>b<![CDATA[c]]></j></i></h>" ),
+			doctype, java.util.Arrays.asList( "I" ) );
+		StringWriter recordWriter = new StringWriter();
+		Element firstRecord = recordIterator.next();
+		firstRecord.write( recordWriter );
+		Element secondRecord = recordIterator.next();
+		secondRecord.write( recordWriter );
+		if( recordIterator.hasNext() || firstRecord != secondRecord
+			|| !recordWriter.toString().equals( "<i\n><j\n>a</j\n></i\n><i\n><j\n>b<![ CDATA [c]]\n></j\n></i\n>" ) ) {
+			throw new ParseException( "Unexpected records.", recordWriter.toString() );
+		}
+		/* Records collected from a Stream, which are not reused. */
+		List<Element> streamedRecords = new RecordIterator( new StringReader( "<h><i><j>a</j></i>\n<i><j>b</j></i></h>" ),
+			doctype, java.util.Arrays.asList( "I" ) ).stream().collect( Collectors.toList() );
+		recordWriter = new StringWriter();
+		for( Element streamedRecord : streamedRecords ) {
+			streamedRecord.write( recordWriter );
+		}
+		if( streamedRecords.size() != 2 || streamedRecords.get( 0 ) == streamedRecords.get( 1 )
+			|| !recordWriter.toString().equals( "<i\n><j\n>a</j\n></i\n><i\n><j\n>b</j\n></i\n>" ) ) {
+			throw new ParseException( "Unexpected streamed records.", recordWriter.toString() );
+		}
+		/* Resource limits, each exceeded by one document. */
+		Limits limits = new Limits();
+		limits.setMaxDepth( 3 );
+		limits.setMaxAttributes( 2 );
+		limits.setMaxEvents( 20 );
+		limits.setMaxSubsetLength( 20 );
+		limits.setMaxEntityExpansions( 2 );
+		limits.setMaxDocumentLength( 100 );
+		String[] limitDocuments = {
+			"<nest><nest><nest><nest>", "<doc a b c>", "<h>" + new String( new char[ 20 ] ).replace( "\0", "<!>" ),
+			"<!doctype x [<!entity y 'zzzzzzzzzzzzzzzzzzzz'><!entity z 'z'>]>", "<doc>&amp;&amp;&amp;</doc>", new String( new char[ 101 ] ).replace( "\0", " " )
+		};
+		ParseException.Error[] limitErrors = {
+			ParseException.Error.NESTING_TOO_DEEP, ParseException.Error.TOO_MANY_ATTRIBUTES, ParseException.Error.TOO_MANY_EVENTS,
+			ParseException.Error.SUBSET_TOO_LONG, ParseException.Error.TOO_MANY_ENTITY_EXPANSIONS, ParseException.Error.DOCUMENT_TOO_LONG
+		};
+		for( int idx = 0; idx <= limitDocuments.length; idx++ ) {
+			Parser limitParser = new Parser();
+			limitParser.setDoctype( doctype );
+			limitParser.setExpandEntities( true );
+			limitParser.setLimits( limits );
+			Loader limitLoader = new Loader();
+			Validator limitValidator = new Validator( limitLoader );
+			if( idx < limitDocuments.length ) {
+				limitValidator.setLimits( limits );
+			} else {
+				/* The Loader checks the depth itself. */
+				limitLoader.setLimits( limits );
+			}
+			limitValidator.doctype( doctype );
+			ParseException.Error limitError = idx < limitDocuments.length ? limitErrors[ idx ] : ParseException.Error.NESTING_TOO_DEEP;
+			try {
+				limitParser.parse( new StringReader( idx < limitDocuments.length ? limitDocuments[ idx ] : limitDocuments[ 0 ] ), limitValidator );
+				throw new ParseException( "Exception expected but none thrown.", limitError.toString() );
+			} catch( ParseException e ) {
+				if( e.getError() != limitError ) {
+					throw e;
+				}
+			}
+		}
+		/* Parsing stopped by a handler once the first record has been found, pulled and pushed. */
+		final Parser stopParser = new Parser();
+		final Recorder stopRecorder = new Recorder() {
+			public void close( String name ) throws ParseException {
+				super.close( name );
+				if( name.equals( "i" ) ) {
+					stopParser.stop();
+				}
+			}
+		};
+		String stopDocument = "<h><i><j>a</j></i><i><j>b</j></i></h>";
+		Validator stopValidator = new Validator( stopRecorder );
+		stopValidator.doctype( doctype );
+		stopParser.setDoctype( doctype );
+		stopParser.parse( new StringReader( stopDocument ), stopValidator );
+		if( !stopRecorder.events.toString().equals( "open(h[])open(i[])open(j[])characters(a)close(j)close(i)" ) ) {
+			throw new ParseException( "Unexpected stopped events.", stopRecorder.events.toString() );
+		}
+		/* A stop before parsing begins, as by a timeout on another thread, applies to the next parse only. */
+		for( int idx = 0; idx < 2; idx++ ) {
+			Recorder earlyRecorder = new Recorder();
+			Validator earlyValidator = new Validator( earlyRecorder );
+			earlyValidator.doctype( doctype );
+			if( idx == 0 ) {
+				stopParser.stop();
+			}
+			stopParser.parse( new StringReader( "<h><i><j>a</j></i></h>" ), earlyValidator );
+			if( !earlyRecorder.events.toString().equals( idx == 0 ? "" : "open(h[])open(i[])open(j[])characters(a)close(j)close(i)close(h)" ) ) {
+				throw new ParseException( "Unexpected early stopped events.", earlyRecorder.events.toString() );
+			}
+		}
+		stopRecorder.events.setLength( 0 );
+		stopValidator = new Validator( stopRecorder );
+		stopValidator.doctype( doctype );
+		PushParser stopPushParser = new PushParser( stopValidator );
+		stopPushParser.setDoctype( doctype );
+		for( int idx = 0; idx < stopDocument.length(); idx++ ) {
+			if( idx == 20 ) {
+				stopPushParser.stop();
+			}
+			stopPushParser.feed( stopDocument.toCharArray(), idx, 1 );
+		}
+		stopPushParser.finish();
+		if( !stopRecorder.events.toString().equals( "open(h[])open(i[])open(j[])characters(a)close(j)close(i)" ) ) {
+			throw new ParseException( "Unexpected stopped pushed events.", stopRecorder.events.toString() );
+		}
+		/* A deadline that has already passed. */
+		Parser deadlineParser = new Parser();
+		deadlineParser.setDoctype( doctype );
+		deadlineParser.setDeadline( 1 );
+		try {
+			deadlineParser.parse( new StringReader( stopDocument ), new Validator( new Recorder() ) );
+			throw new ParseException( "Exception expected but none thrown.", ParseException.Error.DEADLINE_EXCEEDED.toString() );
+		} catch( ParseException e ) {
+			if( e.getError() != ParseException.Error.DEADLINE_EXCEEDED ) {
+				throw e;
+			}
+		}
+		/* Events published in batches, one batch being requested at a time. */
+		EventPublisher publisher = new EventPublisher( new StringReader( "<h><i><j>a</j></i><i><j>b</j></i></h>" ), doctype );
+		publisher.setBatchLength( 3 );
+		BatchSubscriber batchSubscriber = new BatchSubscriber();
+		publisher.subscribe( batchSubscriber );
+		batchSubscriber.published.await();
+		if( batchSubscriber.batchCount != 5 || !batchSubscriber.recorder.events.toString().equals(
+			"open(h[])open(i[])open(j[])characters(a)close(j)close(i)open(i[])open(j[])characters(b)close(j)close(i)close(h)" ) ) {
+			throw new ParseException( "Unexpected published events.", batchSubscriber.batchCount + batchSubscriber.recorder.events.toString() );
+		}
+		/* A RuntimeException from the input passed to the Subscriber rather than lost with the parsing thread. */
+		publisher = new EventPublisher( new Reader() {
+			private boolean read;
+			public int read( char[] buf, int off, int len ) {
+				if( read ) {
+					throw new IllegalStateException( "Broken." );
+				}
+				read = true;
+				"<doc B>".getChars( 0, 7, buf, off );
+				return 7;
+			}
+			public void close() {}
+		}, doctype );
+		publisher.setBatchLength( 1 );
+		batchSubscriber = new BatchSubscriber();
+		publisher.subscribe( batchSubscriber );
+		if( !batchSubscriber.published.await( 10, TimeUnit.SECONDS )
+			|| !batchSubscriber.recorder.events.toString().endsWith( "java.lang.IllegalStateException: Broken." ) ) {
+			throw new ParseException( "Unexpected published error.", batchSubscriber.recorder.events.toString() );
+		}
+		/* The same events when pushed one character at a time. */
+		events.setLength( 0 );
+		PushParser pushParser = new PushParser( tokenHandler );
+		pushParser.setDoctype( doctype );
+		for( int idx = 0; idx < tokenDocument.length(); idx++ ) {
+			pushParser.feed( tokenDocument.toCharArray(), idx, 1 );
+		}
+		pushParser.finish();
+		if( !events.toString().equals( tokenEvents ) ) {
+			throw new ParseException( "Unexpected pushed events.", events.toString() );
+		}
+		events.setLength( 0 );
+		pushParser = new PushParser( tokenHandler );
+		pushParser.setDoctype( doctype );
+		pushParser.setExpandEntities( true );
+		for( int idx = 0; idx < entityDocument.length(); idx++ ) {
+			pushParser.feed( entityDocument.toCharArray(), idx, 1 );
+		}
+		pushParser.finish();
+		if( !events.toString().equals( entityEvents ) ) {
+			throw new ParseException( "Unexpected pushed expanded events.", events.toString() );
+		}
+		/* Long comments, sections and instructions pushed one character at a time, resumed rather than rescanned. */
+		StringBuilder longText = new StringBuilder();
+		while( longText.length() < 1 << 20 ) {
+			longText.append( "- ]> " );
+		}
+		String longInstruction = longText.substring( 0, 1 << 18 ).replace( '>', ' ' );
+		char[] longDocument = ( "<!--" + longText + "--><![CDATA[" + longText + "]]><?" + longInstruction + ">" ).toCharArray();
+		Recorder longRecorder = new Recorder();
+		pushParser = new PushParser( longRecorder );
+		for( int idx = 0; idx < longDocument.length; idx++ ) {
+			pushParser.feed( longDocument, idx, 1 );
+		}
+		pushParser.finish();
+		String longEvents = longRecorder.events.toString();
+		if( pushParser.getRescanLength() > longDocument.length || !longEvents.endsWith( "pi(" + longInstruction + ")" )
+			|| longEvents.replaceAll( "[A-Za-z]+\\(|\\)", "" ).length() != longText.length() * 2 + longInstruction.length() ) {
+			throw new ParseException( "Unexpected long pushed events.", pushParser.getRescanLength() + " characters parsed again" );
+		}
+		/* Cursor over the validated events, skipping an element. */
+		events.setLength( 0 );
+		Cursor cursor = new Cursor( new StringReader( "<doc><a></doc><parent><a>text</parent><z/>" ), doctype );
+		while( cursor.hasNext() ) {
+			int type = cursor.next();
+			if( type == Cursor.OPEN ) {
+				events.append( "open(" ).append( cursor.getName() ).append( ')' );
+				if( "parent".equals( cursor.getName().toString() ) ) {
+					cursor.skip();
+					events.append( "skip(" ).append( cursor.getName() ).append( ')' );
+				}
+			} else if( type == Cursor.CLOSE ) {
+				events.append( "close(" ).append( cursor.getName() ).append( ')' );
+			}
+		}
+		cursor.close();
+		if( !events.toString().equals( "open(doc)open(a)close(doc)open(parent)skip(parent)open(z)close(z)" ) ) {
+			throw new ParseException( "Unexpected cursor events.", events.toString() );
+		}
+		/* Parallel parsing of records, including records in a different context and an invalid record. */
+		StringBuilder records = new StringBuilder( "<h>\n" );
+		for( int idx = 0; idx < 50; idx++ ) {
+			records.append( idx == 40 ? "<i><j></j><i><j></j></i></i>\n" : "<i><!--<i>--><j>text</j></i>\n" );
+		}
+		testParallel( records.toString() + "</h>", doctype, "i" );
+		testParallel( records.toString() + "<i><j><i></h>", doctype, "i" );
+		/* Gzip members inflated in parallel, followed by members inflated sequentially. */
+		byte[] recordBytes = ( records.toString() + "</h>" ).getBytes( "UTF-8" );
+		ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream();
+		int half = recordBytes.length / 2;
+		for( int offset = 0; offset < half; offset += 100 ) {
+			gzipBytes.write( bgzip( recordBytes, offset, Math.min( 100, half - offset ) ) );
+		}
+		for( int offset = half; offset < recordBytes.length; offset += half ) {
+			GZIPOutputStream gzipOutputStream = new GZIPOutputStream( gzipBytes );
+			gzipOutputStream.write( recordBytes, offset, Math.min( half, recordBytes.length - offset ) );
+			gzipOutputStream.finish();
+		}
+		InputStream gzipInput = new ParallelGZIPInputStream( new ByteArrayInputStream( gzipBytes.toByteArray() ) );
+		ByteArrayOutputStream inflatedBytes = new ByteArrayOutputStream();
+		byte[] gzipBuf = new byte[ 37 ];
+		for( int count = gzipInput.read( gzipBuf ); count >= 0; count = gzipInput.read( gzipBuf ) ) {
+			inflatedBytes.write( gzipBuf, 0, count );
+		}
+		gzipInput.close();
+		if( !java.util.Arrays.equals( inflatedBytes.toByteArray(), recordBytes ) ) {
+			throw new ParseException( "Unexpected inflated bytes.", inflatedBytes.toString( "UTF-8" ) );
+		}
+		/* Block and uncompressed sizes that are out of range. */
+		for( int idx = 0; idx < 2; idx++ ) {
+			byte[] invalidBytes = bgzip( recordBytes, 0, 100 );
+			if( idx == 0 ) {
+				invalidBytes[ 16 ] = 10;
+				invalidBytes[ 17 ] = 0;
+			} else {
+				invalidBytes[ invalidBytes.length - 1 ] = 0x7f;
+			}
+			gzipInput = new ParallelGZIPInputStream( new ByteArrayInputStream( invalidBytes ) );
+			try {
+				gzipInput.read( gzipBuf );
+				throw new ParseException( "Exception expected but none thrown.", "ZipException" );
+			} catch( ZipException zipException ) {
+			}
+			gzipInput.close();
+		}
+		/* Gzip files detected and decompressed by the Parser and the ParallelParser. */
+		File gzipFile = File.createTempFile( "arser", ".sgml.gz" );
+		gzipFile.deleteOnExit();
+		FileOutputStream gzipOutput = new FileOutputStream( gzipFile );
+		gzipBytes.writeTo( gzipOutput );
+		gzipOutput.close();
+		String gzipEvents = null;
+		for( int idx = 0; idx < 3; idx++ ) {
+			Recorder gzipRecorder = new Recorder();
+			Validator gzipValidator = new Validator( gzipRecorder );
+			gzipValidator.doctype( doctype );
+			Parser gzipParser = new Parser();
+			gzipParser.setDoctype( doctype );
+			String gzipParsed;
+			try {
+				if( idx == 0 ) {
+					gzipParser.parse( new StringReader( records.toString() + "</h>" ), gzipValidator );
+				} else if( idx == 1 ) {
+					gzipParser.parse( gzipFile, "UTF-8", gzipValidator );
+				} else {
+					new ParallelParser( doctype, "i" ).parse( gzipFile, "UTF-8", gzipRecorder );
+				}
+				gzipParsed = gzipRecorder.events.toString();
+			} catch( ParseException e ) {
+				gzipParsed = e.getError() + " " + e.getLineNumber();
+			}
+			if( gzipEvents == null ) {
+				gzipEvents = gzipParsed;
+			} else if( !gzipParsed.equals( gzipEvents ) ) {
+				throw new ParseException( "Unexpected gzip events.", gzipParsed );
+			}
+		}
+		/* Each entry of a zip archive validated, with the Doctype from a Catalog. */
+		File catalogDir = Files.createTempDirectory( "arser" ).toFile();
+		File catalogFile = new File( catalogDir, "catalog.sgml" );
+		File doctypeFile = new File( catalogDir, "test.doctype" );
+		File zipFile = new File( catalogDir, "documents.zip" );
+		FileOutputStream catalogOutput = new FileOutputStream( catalogFile );
+		catalogOutput.write( "<catalog><doctype public='-//T//DTD T//EN' system=test.doctype></catalog>".getBytes( "UTF-8" ) );
+		catalogOutput.close();
+		StringWriter testDoctypeWriter = new StringWriter();
+		doctype.write( testDoctypeWriter );
+		catalogOutput = new FileOutputStream( doctypeFile );
+		catalogOutput.write( testDoctypeWriter.toString().getBytes( "UTF-8" ) );
+		catalogOutput.close();
+		String zipPrologue = "<!doctype h public \"-//T//DTD T//EN\">";
+		ZipOutputStream zipOutput = new ZipOutputStream( new FileOutputStream( zipFile ) );
+		zipOutput.putNextEntry( new ZipEntry( "valid.sgml" ) );
+		zipOutput.write( ( zipPrologue + "<h><i><j>x</j></i></h>" ).getBytes( "UTF-8" ) );
+		zipOutput.putNextEntry( new ZipEntry( "valid.sgml.gz" ) );
+		GZIPOutputStream zipGzipOutput = new GZIPOutputStream( zipOutput );
+		zipGzipOutput.write( ( zipPrologue + "<h><i><j>y</j></i></h>" ).getBytes( "UTF-8" ) );
+		zipGzipOutput.finish();
+		zipOutput.putNextEntry( new ZipEntry( "invalid.sgml" ) );
+		zipOutput.write( ( zipPrologue + "<h><j>z</j></h>" ).getBytes( "UTF-8" ) );
+		zipOutput.close();
+		ZipFile zipArchive = new ZipFile( zipFile );
+		Map<String, ParseException> zipErrors = new ParseSgml( new Catalog( catalogFile ) ).validate( zipArchive, "UTF-8" );
+		zipArchive.close();
+		if( !zipErrors.keySet().equals( Collections.singleton( "invalid.sgml" ) ) ) {
+			throw new ParseException( "Unexpected zip errors.", zipErrors.toString() );
+		}
+		zipFile.delete();
+		doctypeFile.delete();
+		catalogFile.delete();
+		catalogDir.delete();
+		/* A file decoded from small memory-mapped windows, with UTF-8 sequences straddling them. */
+		StringBuilder mappedText = new StringBuilder();
+		for( int idx = 0; idx < 50; idx++ ) {
+			mappedText.append( "a\u00e9\u20ac\ud834\udd1e\n" );
+		}
+		String mappedDocument = "<h><i><j>" + mappedText + "</j></i></h>";
+		File mappedFile = File.createTempFile( "arser", ".sgml" );
+		mappedFile.deleteOnExit();
+		FileOutputStream mappedOutput = new FileOutputStream( mappedFile );
+		mappedOutput.write( mappedDocument.getBytes( "UTF-8" ) );
+		mappedOutput.close();
+		for( int windowLength = 4; windowLength < 12; windowLength++ ) {
+			ByteReader mappedReader = new ByteReader( new RandomAccessFile( mappedFile, "r" ).getChannel(), "UTF-8", windowLength );
+			StringBuilder mappedChars = new StringBuilder();
+			char[] mappedBuf = new char[ 7 ];
+			for( int count = mappedReader.read( mappedBuf ); count >= 0; count = mappedReader.read( mappedBuf ) ) {
+				mappedChars.append( mappedBuf, 0, count );
+			}
+			mappedReader.close();
+			if( !mappedChars.toString().equals( mappedDocument ) ) {
+				throw new ParseException( "Unexpected mapped characters.", mappedChars.toString() );
+			}
+			Validator mappedValidator = new Validator( new Loader() );
+			mappedValidator.doctype( doctype );
+			Parser mappedParser = new Parser();
+			mappedParser.setDoctype( doctype );
+			mappedReader = new ByteReader( new RandomAccessFile( mappedFile, "r" ).getChannel(), "UTF-8", windowLength );
+			mappedParser.parse( mappedReader, mappedValidator );
+			mappedReader.close();
+		}
+		/* Byte offsets and line numbers consistent with the character offset at each event, across input buffers. */
+		for( int idx = 0; idx < 6000; idx++ ) {
+			mappedText.append( idx % 2 == 0 ? "\u00e9\n" : "\ud834\udd1e\u20acb" );
+		}
+		final String offsetDocument = "<h><i><j>" + mappedText + "</j></i></h>";
+		final byte[] offsetBytes = offsetDocument.getBytes( "UTF-8" );
+		mappedOutput = new FileOutputStream( mappedFile );
+		mappedOutput.write( offsetBytes );
+		mappedOutput.close();
+		final Parser offsetParser = new Parser();
+		Validator offsetValidator = new Validator( new Recorder() {
+			public void characters( String characters ) throws ParseException {
+				String read = new String( offsetBytes, 0, ( int ) offsetParser.getByteOffset(), StandardCharsets.UTF_8 );
+				if( !read.equals( offsetDocument.substring( 0, ( int ) offsetParser.getOffset() ) )
+					|| offsetParser.getLineNumber() != read.split( "\n", -1 ).length ) {
+					throw new ParseException( "Unexpected byte offset.", offsetParser.getByteOffset() + " " + offsetParser.getLineNumber() );
+				}
+			}
+		} );
+		offsetValidator.doctype( doctype );
+		offsetParser.setDoctype( doctype );
+		offsetParser.parse( mappedFile, "UTF-8", offsetValidator );
+		if( offsetParser.getByteOffset() != offsetBytes.length ) {
+			throw new ParseException( "Unexpected final byte offset.", String.valueOf( offsetParser.getByteOffset() ) );
+		}
 		System.out.println( "All tests passed." );
 	}
 
@@ -272,7 +983,23 @@ public class ParserTest {
 		try {
 			Validator validator = new Validator( handler );
 			validator.doctype( doctype );
-			new Parser().parse( new StringReader( document ), validator );
+			Parser parser = new Parser();
+			parser.setDoctype( doctype );
+			parser.parse( new StringReader( document ), validator );
+			if( expected != null ) {
+				throw new ParseException( "Exception expected but none thrown.", expected.toString() );
+			}
+		} catch( ParseException e ) {
+			if( expected == null || e.getError() != expected ) {
+				throw e;
+			}
+		}
+		/* Parse again from UTF-8 bytes. */
+		try {
+			Validator validator = new Validator( handler );
+			validator.doctype( doctype );
+			byte[] bytes = document.getBytes( "UTF-8" );
+			new Parser().parse( bytes, 0, bytes.length, "UTF-8", validator );
 			if( expected != null ) {
 				throw new ParseException( "Exception expected but none thrown.", expected.toString() );
 			}
@@ -281,5 +1008,201 @@ public class ParserTest {
 				throw e;
 			}
 		}
+		/* Parse again, pushing one byte at a time. */
+		try {
+			Validator validator = new Validator( handler );
+			validator.doctype( doctype );
+			PushParser pushParser = new PushParser( validator );
+			pushParser.setEncoding( "UTF-8" );
+			byte[] bytes = document.getBytes( "UTF-8" );
+			for( int idx = 0; idx < bytes.length; idx++ ) {
+				pushParser.feed( bytes, idx, 1 );
+			}
+			pushParser.finish();
+			if( expected != null ) {
+				throw new ParseException( "Exception expected but none thrown.", expected.toString() );
+			}
+		} catch( ParseException e ) {
+			if( expected == null || e.getError() != expected ) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+		Test the deprecated Context constructor and methods, which doctype must declare
+		nest including i and j excluding i.
+		@param doctype the doctype to use.
+		@throws ParseException if the contexts are not as expected.
+	*/
+	@SuppressWarnings( "deprecation" )
+	public static void testDeprecatedContext( Doctype doctype ) throws ParseException {
+		Context legacyContext = new Context( doctype.getElementDecl( "j" ), new Context( doctype.getElementDecl( "nest" ), new Context() ) );
+		Context typedContext = new Context();
+		typedContext.setDoctype( doctype );
+		typedContext = new Context( doctype.getElementDecl( "nest" ), typedContext );
+		if( !legacyContext.toString().equals( "<nest><j>" ) || !legacyContext.isIncluded( "i" ) || !legacyContext.isExcluded( "i" )
+			|| !legacyContext.getParent().toString().equals( "<nest>" ) || legacyContext.getParent().isExcluded( "i" )
+			|| legacyContext.getParent().getParent().getParent() != null || !typedContext.isIncluded( doctype.getElementId( "i" ) ) ) {
+			throw new ParseException( "Unexpected deprecated context.", legacyContext.toString() );
+		}
+	}
+
+	/**
+		Test that the Automaton for a content model accepts and rejects the expected sequences.
+		@param expression the content model.
+		@param accepted the space-separated sequences of element names that complete the model.
+		@param rejected the sequences that do not, the undeclared name "zz" leading to the dead state.
+		@return the Automaton.
+		@throws ParseException if a sequence is not judged as expected.
+	*/
+	public static Automaton testAutomaton( String expression, String[] accepted, String[] rejected ) throws ParseException {
+		System.out.println( "Testing automaton: " + expression );
+		Automaton automaton = new ContentModelCompiler().compileAutomaton( expression );
+		if( automaton.symbol( "zz" ) != automaton.getSymbolCount() - 1 || automaton.shift( Automaton.START, "zz" ) != Automaton.DEAD
+			|| automaton.complete( Automaton.DEAD ) || automaton.marked( Automaton.DEAD ) || automaton.shift( Automaton.DEAD, "a" ) != Automaton.DEAD ) {
+			throw new ParseException( "Unexpected unknown symbol or dead state.", expression );
+		}
+		for( int idx = 0; idx < accepted.length + rejected.length; idx++ ) {
+			String sequence = idx < accepted.length ? accepted[ idx ] : rejected[ idx - accepted.length ];
+			int state = Automaton.START;
+			for( String token : sequence.split( " " ) ) {
+				if( token.length() > 0 ) {
+					state = automaton.shift( state, token );
+				}
+			}
+			if( automaton.complete( state ) != ( idx < accepted.length ) ) {
+				throw new ParseException( "Unexpected automaton result.", expression + ": " + sequence );
+			}
+		}
+		return automaton;
+	}
+
+	/**
+		Test that the parallel parser produces the same events and errors as the parser and validator.
+		@param document the document to parse.
+		@param doctype the doctype to use.
+		@param recordName the name of the elements at which the document may be split.
+		@throws ParseException if the results differ.
+	*/
+	public static void testParallel( String document, Doctype doctype, String recordName ) throws IOException, ParseException {
+		Recorder sequential = new Recorder();
+		Validator validator = new Validator( sequential );
+		validator.doctype( doctype );
+		Parser parser = new Parser();
+		parser.setDoctype( doctype );
+		String expected;
+		try {
+			parser.parse( new StringReader( document ), validator );
+			expected = sequential.events.toString();
+		} catch( ParseException e ) {
+			expected = e.getError() + " " + e.getLineNumber() + ":" + e.getColumnNumber() + ":" + e.getOffset();
+		}
+		ForkJoinPool pool = new ForkJoinPool( 2 );
+		for( int chunkLength = 1; chunkLength < document.length(); chunkLength *= 4 ) {
+			ParallelParser parallelParser = new ParallelParser( doctype, recordName );
+			parallelParser.setPool( pool );
+			parallelParser.setChunkLength( chunkLength );
+			Recorder recorder = new Recorder();
+			String events;
+			try {
+				parallelParser.parse( document.toCharArray(), 0, document.length(), recorder );
+				events = recorder.events.toString();
+			} catch( ParseException e ) {
+				events = e.getError() + " " + e.getLineNumber() + ":" + e.getColumnNumber() + ":" + e.getOffset();
+			}
+			if( !events.equals( expected ) ) {
+				throw new ParseException( "Unexpected parallel events.", events );
+			}
+		}
+		pool.shutdown();
+	}
+
+	/* Return the specified bytes compressed as a gzip member with a "BC" extra field containing its length. */
+	private static byte[] bgzip( byte[] bytes, int offset, int length ) throws IOException {
+		Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+		deflater.setInput( bytes, offset, length );
+		deflater.finish();
+		byte[] data = new byte[ length + 1024 ];
+		int dataLen = deflater.deflate( data );
+		deflater.end();
+		CRC32 crc32 = new CRC32();
+		crc32.update( bytes, offset, length );
+		int blockLen = 18 + dataLen + 8;
+		ByteArrayOutputStream member = new ByteArrayOutputStream();
+		member.write( new byte[] { 0x1f, ( byte ) 0x8b, 8, 4, 0, 0, 0, 0, 0, ( byte ) 0xff, 6, 0, 'B', 'C', 2, 0,
+			( byte ) ( blockLen - 1 ), ( byte ) ( ( blockLen - 1 ) >> 8 ) } );
+		member.write( data, 0, dataLen );
+		long crc = crc32.getValue();
+		member.write( new byte[] { ( byte ) crc, ( byte ) ( crc >> 8 ), ( byte ) ( crc >> 16 ), ( byte ) ( crc >> 24 ),
+			( byte ) length, ( byte ) ( length >> 8 ), ( byte ) ( length >> 16 ), ( byte ) ( length >> 24 ) } );
+		return member.toByteArray();
+	}
+
+	/* A Subscriber that replays each batch to a Recorder, requesting one at a time. */
+	private static class BatchSubscriber implements Flow.Subscriber<EventBatch> {
+		private Recorder recorder = new Recorder();
+		private CountDownLatch published = new CountDownLatch( 1 );
+		private Flow.Subscription subscription;
+		private int batchCount;
+		public void onSubscribe( Flow.Subscription s ) {
+			subscription = s;
+			subscription.request( 1 );
+		}
+		public void onNext( EventBatch batch ) {
+			try {
+				batch.replay( recorder );
+			} catch( ParseException parseException ) {
+				subscription.cancel();
+			}
+			batchCount++;
+			subscription.request( 1 );
+		}
+		public void onError( Throwable throwable ) {
+			recorder.events.append( throwable );
+			published.countDown();
+		}
+		public void onComplete() {
+			published.countDown();
+		}
+	}
+
+	/* Handler that records events as a String, including begin and end events if documents is true. */
+	private static class Recorder implements Handler {
+		private StringBuilder events = new StringBuilder();
+		private boolean documents;
+		public void begin() throws ParseException {
+			if( documents ) {
+				events.append( "begin()" );
+			}
+		}
+		public void doctype( Doctype dt ) throws ParseException {}
+		public void comment( String comment ) throws ParseException {
+			events.append( "comment(" ).append( comment ).append( ')' );
+		}
+		public void declaration( Declaration declaration ) throws ParseException {}
+		public void pi( String instruction ) throws ParseException {
+			events.append( "pi(" ).append( instruction ).append( ')' );
+		}
+		public void entity( String name ) throws ParseException {
+			events.append( "entity(" ).append( name ).append( ')' );
+		}
+		public void open( String name, java.util.List<Attribute> attributes ) throws ParseException {
+			events.append( "open(" ).append( name ).append( attributes ).append( ')' );
+		}
+		public void characters( String characters ) throws ParseException {
+			events.append( "characters(" ).append( characters ).append( ')' );
+		}
+		public void characters( String param, String characters ) throws ParseException {
+			events.append( param ).append( '(' ).append( characters ).append( ')' );
+		}
+		public void close( String name ) throws ParseException {
+			events.append( "close(" ).append( name ).append( ')' );
+		}
+		public void end() throws ParseException {
+			if( documents ) {
+				events.append( "end()" );
+			}
+		}
 	}
 }
@@ -1,12 +1,13 @@
 
 package arsertest;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.Reader;
 
 import arser.Attribute;
+import arser.ByteReader;
 import arser.Declaration;
 import arser.Doctype;
 import arser.Handler;
@@ -24,15 +25,16 @@ public class ValidatorTest implements Handler {
 			System.exit( 0 );
 		}
 		// Load doctype.
-		Reader reader = new InputStreamReader( new FileInputStream( args[ 0 ] ), "ISO-8859-1" );
+		Reader reader = new ByteReader( new FileInputStream( args[ 0 ] ), "ISO-8859-1" );
 		Doctype doctype = Doctype.parse( reader );
 		reader.close();
 		// Parse document.
-		reader = new InputStreamReader( new FileInputStream( args[ 1 ] ), "ISO-8859-1" );
 		Validator validator = new Validator( new ValidatorTest() );
 		validator.doctype( doctype );
-		new Parser().parse( reader, validator );
-		reader.close();
+		Parser parser = new Parser();
+		parser.setDoctype( doctype );
+		parser.setEventMask( 0 );
+		parser.parse( new File( args[ 1 ] ), "ISO-8859-1", validator );
 	}
 	
 	/** Called at the beginning of a document. */